@@ -1,12 +1,14 @@
 package refit.agreement.idem;
 
 import java.nio.ByteBuffer;
+import java.util.Objects;
 
 import refit.agreement.idem.execution.IDEMCheckpoint;
 import refit.agreement.idem.order.IDEMViewChange;
 import refit.message.REFITMessage;
 import refit.message.REFITMessageType;
 import refit.message.REFITReplyBase;
+import refit.message.REFITRequest;
 import refit.message.REFITUniqueID;
 
 public abstract class IDEMMessage extends REFITMessage {
@@ -29,12 +31,37 @@ public abstract class IDEMMessage extends REFITMessage {
 	// #####################
 
 	public static class IDEMReject extends REFITReplyBase {
+		// Time in ms the client should wait before retrying, 0 if unknown
+		public final int retryAfter;
+		// Fill level of the replica's pending requests in percent
+		public final short load;
+
 		public IDEMReject(REFITUniqueID rid, short from) {
+			this(rid, from, 0, (short) 0);
+		}
+
+		public IDEMReject(REFITUniqueID rid, short from, int retryAfter, short load) {
 			super(REFITMessageType.IDEM_REJECT, rid, from, from);
+			this.retryAfter = retryAfter;
+			this.load = load;
 		}
 
 		public IDEMReject(ByteBuffer buffer) {
 			super(REFITMessageType.IDEM_REJECT, buffer);
+			this.retryAfter = buffer.getInt();
+			this.load = buffer.getShort();
+		}
+
+		@Override
+		protected void serialize(ByteBuffer buffer) {
+			super.serialize(buffer);
+			buffer.putInt(retryAfter);
+			buffer.putShort(load);
+		}
+
+		@Override
+		protected int calculatePayloadSize() {
+			return super.calculatePayloadSize() + Integer.BYTES + Short.BYTES;
 		}
 
 		@Override
@@ -64,12 +91,33 @@ public abstract class IDEMMessage extends REFITMessage {
 	}
 
 	public static class IDEMRequire extends IDEMMessage {
-		public IDEMRequire(REFITUniqueID rid, short from) {
+		// Relative deadline of the request, 0 if unlimited
+		public final int deadline;
+		// Load of the sender's execution stage in percent of its admission limit
+		public final short load;
+
+		public IDEMRequire(REFITUniqueID rid, int deadline, short load, short from) {
 			super(REFITMessageType.IDEM_REQUIRE, rid, from);
+			this.deadline = deadline;
+			this.load = load;
 		}
 
 		public IDEMRequire(ByteBuffer buffer) {
 			super(REFITMessageType.IDEM_REQUIRE, buffer);
+			this.deadline = buffer.getInt();
+			this.load = buffer.getShort();
+		}
+
+		@Override
+		protected void serialize(ByteBuffer buffer) {
+			super.serialize(buffer);
+			buffer.putInt(deadline);
+			buffer.putShort(load);
+		}
+
+		@Override
+		protected int calculatePayloadSize() {
+			return super.calculatePayloadSize() + Integer.BYTES + Short.BYTES;
 		}
 	}
 
@@ -86,21 +134,25 @@ public abstract class IDEMMessage extends REFITMessage {
 	/* Order Messages */
 	public static abstract class IDEMOrderMessage extends IDEMMessage {
 
-		public static final int HEADER_SIZE = Long.BYTES + Long.BYTES;
+		public static final int HEADER_SIZE = Long.BYTES + Integer.BYTES + Byte.BYTES;
 
 		public long sqn;
 		public int view;
+		// The request expired before it was proposed and must not be executed
+		public boolean skip;
 
-		protected IDEMOrderMessage(REFITMessageType type, REFITUniqueID request, long sqn, int view, short from) {
+		protected IDEMOrderMessage(REFITMessageType type, REFITUniqueID request, long sqn, int view, boolean skip, short from) {
 			super(type, request, from);
 			this.sqn = sqn;
 			this.view = view;
+			this.skip = skip;
 		}
 
 		protected IDEMOrderMessage(REFITMessageType type, ByteBuffer buffer) {
 			super(type, buffer);
 			this.sqn = buffer.getLong();
 			this.view = buffer.getInt();
+			this.skip = (buffer.get() == 1);
 		}
 
 		@Override
@@ -113,6 +165,7 @@ public abstract class IDEMMessage extends REFITMessage {
 			super.serialize(buffer);
 			buffer.putLong(sqn);
 			buffer.putInt(view);
+			buffer.put((byte) (skip ? 1 : 0));
 		}
 
 		@Override
@@ -122,13 +175,13 @@ public abstract class IDEMMessage extends REFITMessage {
 
 		@Override
 		public String toString() {
-			return super.toString() + "[" + sqn + "|" + view + "]";
+			return super.toString() + "[" + sqn + "|" + view + (skip ? "|skip]" : "]");
 		}
 	}
 
 	public static class IDEMPropose extends IDEMOrderMessage {
-		public IDEMPropose(REFITUniqueID request, long sqn, int view, short from) {
-			super(REFITMessageType.IDEM_PROPOSE, request, sqn, view, from);
+		public IDEMPropose(REFITUniqueID request, long sqn, int view, boolean skip, short from) {
+			super(REFITMessageType.IDEM_PROPOSE, request, sqn, view, skip, from);
 		}
 
 		public IDEMPropose(ByteBuffer buffer) {
@@ -137,12 +190,28 @@ public abstract class IDEMMessage extends REFITMessage {
 	}
 
 	public static class IDEMCommit extends IDEMOrderMessage {
-		public IDEMCommit(IDEMPropose p, short from) {
-			super(REFITMessageType.IDEM_COMMIT, p.uid, p.sqn, p.view, from);
+		// Latest load the sender's execution stage reported in a require, negative if unknown
+		public final short load;
+
+		public IDEMCommit(IDEMPropose p, short load, short from) {
+			super(REFITMessageType.IDEM_COMMIT, p.uid, p.sqn, p.view, p.skip, from);
+			this.load = load;
 		}
 
 		public IDEMCommit(ByteBuffer buffer) {
 			super(REFITMessageType.IDEM_COMMIT, buffer);
+			this.load = buffer.getShort();
+		}
+
+		@Override
+		protected void serialize(ByteBuffer buffer) {
+			super.serialize(buffer);
+			buffer.putShort(load);
+		}
+
+		@Override
+		public int calculateMessageSize() {
+			return super.calculateMessageSize() + Short.BYTES;
 		}
 	}
 
@@ -214,4 +283,99 @@ public abstract class IDEMMessage extends REFITMessage {
 			return super.calculatePayloadSize() + checkpoint.payloadSize();
 		}
 	}
+
+	/* Log-based catch-up */
+	public static class IDEMLogRequest extends IDEMMessage {
+		public IDEMLogRequest(long sqn, short from) {
+			super(REFITMessageType.IDEM_LOG_REQUEST, new REFITUniqueID(from, sqn), from);
+		}
+
+		public IDEMLogRequest(ByteBuffer buffer) {
+			super(REFITMessageType.IDEM_LOG_REQUEST, buffer);
+		}
+	}
+
+	public static class IDEMLogMessage extends IDEMMessage {
+
+		private static final int ENTRY_HEADER_SIZE = Short.BYTES + Long.BYTES + Byte.BYTES;
+		// Entry types
+		private static final byte EMPTY = 0;
+		private static final byte REQUEST = 1;
+		private static final byte SKIPPED = 2;
+
+		public final REFITUniqueID[] ids;
+		// Null for entries that were duplicates or skipped and therefore not executed
+		public final REFITRequest[] requests;
+		// Entries of expired requests which were skipped
+		public final boolean[] skipped;
+
+		public IDEMLogMessage(long start, REFITUniqueID[] ids, REFITRequest[] requests, boolean[] skipped, short from) {
+			super(REFITMessageType.IDEM_LOG, new REFITUniqueID(from, start), from);
+			this.ids = ids;
+			this.requests = requests;
+			this.skipped = skipped;
+		}
+
+		public IDEMLogMessage(ByteBuffer buffer) {
+			super(REFITMessageType.IDEM_LOG, buffer);
+			int count = buffer.getInt();
+			this.ids = new REFITUniqueID[count];
+			this.requests = new REFITRequest[count];
+			this.skipped = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = new REFITUniqueID(buffer.getShort(), buffer.getLong());
+				byte entry = buffer.get();
+				skipped[i] = (entry == SKIPPED);
+				if (entry == REQUEST) {
+					REFITRequest request = new REFITRequest(buffer.slice());
+					buffer.position(buffer.position() + request.getMessageSize());
+					requests[i] = request;
+				}
+			}
+		}
+
+		public long start() {
+			return uid.seqNr;
+		}
+
+		public boolean covers(long n) {
+			return n >= start() && n < start() + ids.length;
+		}
+
+		// Whether both logs contain the same entry for the given sequence number
+		public boolean agrees(IDEMLogMessage other, long n) {
+			int i = (int) (n - start());
+			int j = (int) (n - other.start());
+			return ids[i].equals(other.ids[j]) && skipped[i] == other.skipped[j] && Objects.equals(requests[i], other.requests[j]);
+		}
+
+		public static int entrySize(REFITRequest request) {
+			return ENTRY_HEADER_SIZE + ((request != null) ? request.getMessageSize() : 0);
+		}
+
+		@Override
+		protected void serialize(ByteBuffer buffer) {
+			super.serialize(buffer);
+			buffer.putInt(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				buffer.putShort(ids[i].nodeID);
+				buffer.putLong(ids[i].seqNr);
+				if (requests[i] != null) {
+					buffer.put(REQUEST);
+					buffer.put(requests[i].getBuffer());
+				} else {
+					buffer.put(skipped[i] ? SKIPPED : EMPTY);
+				}
+			}
+		}
+
+		@Override
+		protected int calculatePayloadSize() {
+			int size = super.calculatePayloadSize() + Integer.BYTES;
+			for (REFITRequest request : requests) {
+				size += entrySize(request);
+			}
+			return size;
+		}
+	}
 }
@@ -4,40 +4,45 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.function.IntToLongFunction;
 
-import refit.config.REFITConfig;
 import refit.message.REFITUniqueID;
+import refit.util.REFITIntMap;
 
 public class IDEMRequestSet<T> extends HashMap<REFITUniqueID, T> {
     
-    	private final TreeSet<REFITUniqueID>[] requestsPerClient;
+    	// Only contains clients with pending requests
+    	private final REFITIntMap<TreeSet<REFITUniqueID>> requestsPerClient;
 
         public IDEMRequestSet() {
-            this.requestsPerClient = new TreeSet[REFITConfig.TOTAL_NR_OF_CLIENTS];
-            for (int i = 0; i < requestsPerClient.length; i++) {
-                this.requestsPerClient[i] = new TreeSet<REFITUniqueID>((a,b) -> (Long.compare(a.seqNr, b.seqNr)));
-            }
+            this.requestsPerClient = new REFITIntMap<>();
+        }
+
+        private TreeSet<REFITUniqueID> requestsOf(short client) {
+            return requestsPerClient.computeIfAbsent(client, c -> new TreeSet<REFITUniqueID>((a,b) -> (Long.compare(a.seqNr, b.seqNr))));
         }
 
         @Override
         public T put(REFITUniqueID uid, T r) {
-            requestsPerClient[uid.nodeID].add(uid);
+            requestsOf(uid.nodeID).add(uid);
             return super.put(uid, r);
         }
 
         @Override
         public void putAll(Map<? extends REFITUniqueID, ? extends T> requests) {
             for (REFITUniqueID uid : requests.keySet()) {
-                requestsPerClient[uid.nodeID].add(uid);
+                requestsOf(uid.nodeID).add(uid);
             }
             super.putAll(requests);
         }
 
+        // Called for every value dropped by remove or removeExecuted
+        protected void removed(T value) {
+        }
+
         @Override
         public void clear() {
-            for (TreeSet<REFITUniqueID> s : requestsPerClient) {
-                s.clear();
-            }
+            requestsPerClient.clear();
             super.clear();
         }
 
@@ -47,39 +52,44 @@ public class IDEMRequestSet<T> extends HashMap<REFITUniqueID, T> {
             // Removes not only this particular request but all requests
             // of the client that are older.
             T r = null;
+            TreeSet<REFITUniqueID> requests = requestsPerClient.get(uid.nodeID);
+            if (requests == null) return null;
             ArrayList<REFITUniqueID> toRemove = new ArrayList<>();
-            for (REFITUniqueID id : requestsPerClient[uid.nodeID]) {
+            for (REFITUniqueID id : requests) {
                 if (id.seqNr < uid.seqNr) {
-                    super.remove(id);
+                    removed(super.remove(id));
                     toRemove.add(id);
                 } else if (id.seqNr == uid.seqNr) {
                     r = super.remove(id);
+                    removed(r);
                     toRemove.add(id);
                 }  else {
                     break;
                 }
             }
             for (REFITUniqueID id : toRemove) {
-                requestsPerClient[uid.nodeID].remove(id);
+                requests.remove(id);
             }
+            if (requests.isEmpty()) requestsPerClient.remove(uid.nodeID);
             return r;
         }
 
-        public void removeExecuted(long[] executed) {
-            for (int i=0; i < executed.length; i++) {
+        public void removeExecuted(IntToLongFunction executed) {
+            for (int i : requestsPerClient.keys()) {
+                TreeSet<REFITUniqueID> requests = requestsPerClient.get(i);
                 ArrayList<REFITUniqueID> toRemove = new ArrayList<>();
-                for (REFITUniqueID id : requestsPerClient[i]) {
-                    if (id.seqNr < executed[i]) {
-                        super.remove(id);
+                for (REFITUniqueID id : requests) {
+                    if (id.seqNr < executed.applyAsLong(i)) {
+                        removed(super.remove(id));
                         toRemove.add(id);
                     } else {
                         break;
                     }
                 }
                 for (REFITUniqueID id : toRemove) {
-                    requestsPerClient[i].remove(id);
+                    requests.remove(id);
                 }
-                toRemove.clear();
+                if (requests.isEmpty()) requestsPerClient.remove(i);
             }
         }
 }
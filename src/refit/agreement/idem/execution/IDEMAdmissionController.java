@@ -0,0 +1,79 @@
+package refit.agreement.idem.execution;
+
+// Adapts the number of admitted pending requests to hold the queueing delay at a target, following
+// the CoDel control law: Once the delay stayed above the target for a whole interval, the limit is
+// lowered with a rate that grows with the square root of the number of reductions. Each interval
+// with a delay below the target raises the limit again until it reaches the static upper bound.
+public class IDEMAdmissionController {
+
+	private final long target;
+	private final long interval;
+	private final int maxLimit;
+	private int limit;
+
+	// Time at which the delay has been above the target for an interval, 0 if below the target
+	private long firstAboveTime;
+	private boolean dropping;
+	private long dropNext;
+	private int count;
+	private int lastCount;
+	private long lastIncrease;
+
+
+	public IDEMAdmissionController(long target, long interval, int maxLimit) {
+		this.target = target;
+		this.interval = interval;
+		this.maxLimit = maxLimit;
+		this.limit = maxLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "ADMSN[" + limit + "/" + maxLimit + (dropping ? ", dropping]" : "]");
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	// Sojourn time and current time use the same time unit as target and interval
+	public void recordSojourn(long sojourn, long now) {
+		if (sojourn < target) {
+			firstAboveTime = 0;
+			dropping = false;
+			if (limit < maxLimit && now - lastIncrease >= interval) {
+				limit++;
+				lastIncrease = now;
+			}
+			return;
+		}
+
+		if (!dropping) {
+			if (firstAboveTime == 0) {
+				firstAboveTime = now + interval;
+			} else if (now >= firstAboveTime) {
+				dropping = true;
+				// Resume with the previous reduction rate if the last dropping state ended recently
+				int delta = count - lastCount;
+				count = (delta > 1 && now - dropNext < 16 * interval) ? delta : 1;
+				lastCount = count;
+				reduce(now);
+				dropNext = controlLaw(now);
+			}
+		} else if (now >= dropNext) {
+			count++;
+			reduce(now);
+			dropNext = controlLaw(dropNext);
+		}
+	}
+
+	private void reduce(long now) {
+		if (limit > 1) limit--;
+		// Wait for a full interval below the target before raising the limit again
+		lastIncrease = now;
+	}
+
+	private long controlLaw(long t) {
+		return t + (long) (interval / Math.sqrt(count));
+	}
+}
@@ -11,44 +11,29 @@ import refit.replica.checkpoint.REFITCheckpointObject;
 public class IDEMCheckpoint {
 
 	public long sqn;
-	public long[] executed;
-
-	public IDEMResult[] results;
+	public IDEMClientTable clients;
 	public REFITCheckpointObject[] state;
 
 	// Optimization
 	public HashMap<REFITUniqueID, REFITRequest> requests;
 
-	public IDEMCheckpoint(long sqn, long[] executed, IDEMResult[] results, REFITCheckpointObject[] state, HashMap<REFITUniqueID, REFITRequest> requests) {
+	public IDEMCheckpoint(long sqn, IDEMClientTable clients, REFITCheckpointObject[] state, HashMap<REFITUniqueID, REFITRequest> requests) {
 		this.sqn = sqn;
-		this.executed = executed.clone();
-		this.results = results.clone();
+		this.clients = clients.copy();
 		this.state = state.clone();
 		if (requests != null) {
 			this.requests = new HashMap<REFITUniqueID, REFITRequest>(requests);
 		}
 	}
 
-	public IDEMCheckpoint(long sqn, long[] executed, IDEMResult[] results, REFITCheckpointObject[] state) {
-		this(sqn, executed, results, state, null);
+	public IDEMCheckpoint(long sqn, IDEMClientTable clients, REFITCheckpointObject[] state) {
+		this(sqn, clients, state, null);
 	}
 
 	public IDEMCheckpoint(ByteBuffer buffer) {
 		this.sqn = buffer.getLong();
-		// executed
-		int size = buffer.getInt();
-		this.executed = new long[size];
-		for (int i=0; i<size; i++) {
-			executed[i] = buffer.getLong();
-		}
-		// results
-		size = buffer.getInt();
-		this.results = new IDEMResult[size];
-		for (int i=0; i<size; i++) {
-			if(buffer.get() == 1) {
-				results[i] = new IDEMResult(buffer);
-			}
-		}
+		// executed and results
+		this.clients = new IDEMClientTable(buffer);
 		// requests
 		byte requestsSet = buffer.get();
 		if (requestsSet == 1) {
@@ -61,21 +46,8 @@ public class IDEMCheckpoint {
 
 	public void serialize(ByteBuffer buffer) {
 		buffer.putLong(sqn);
-		// executed
-		buffer.putInt(executed.length);
-		for (long e : executed) {
-			buffer.putLong(e);
-		}
-		// results
-		buffer.putInt(results.length);
-		for (IDEMResult result : results) {
-			if (result == null) {
-				buffer.put((byte)0);
-			} else {
-				buffer.put((byte)1);
-				result.serialize(buffer);
-			}
-		}
+		// executed and results
+		clients.serialize(buffer);
 		// requests
 		if (requests == null) {
 			buffer.put((byte)0);
@@ -90,17 +62,8 @@ public class IDEMCheckpoint {
 
 	public int payloadSize() {
 		int size = Long.BYTES;
-		// executed
-		size += Integer.BYTES;
-		size += Long.BYTES * executed.length;
-		// results
-		size += Integer.BYTES;
-		for (int i=0; i < results.length; i++) {
-			size += Byte.BYTES;
-			if (results[i] != null) {
-				size += results[i].payloadSize();
-			}
-		}
+		// executed and results
+		size += clients.payloadSize();
 		// requests
 		size += Byte.BYTES;
 		if (requests != null) {
@@ -0,0 +1,121 @@
+package refit.agreement.idem.execution;
+
+import java.nio.ByteBuffer;
+
+import refit.message.REFITUniqueID;
+import refit.util.REFITIntMap;
+
+// Per-client execution progress, only clients which already had a request executed take up space
+public class IDEMClientTable {
+
+	private static final class Client {
+		// Sequence number following the latest executed request
+		private long executed;
+		// Null if not available or evicted
+		private IDEMResult result;
+
+		private Client(long executed, IDEMResult result) {
+			this.executed = executed;
+			this.result = result;
+		}
+	}
+
+	private final REFITIntMap<Client> clients;
+
+
+	public IDEMClientTable() {
+		this.clients = new REFITIntMap<>();
+	}
+
+	private IDEMClientTable(int expectedSize) {
+		this.clients = new REFITIntMap<>(expectedSize);
+	}
+
+	public IDEMClientTable(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		this.clients = new REFITIntMap<>(size);
+		for (int i = 0; i < size; i++) {
+			short client = buffer.getShort();
+			long executed = buffer.getLong();
+			IDEMResult result = (buffer.get() == 1) ? new IDEMResult(buffer) : null;
+			clients.put(client, new Client(executed, result));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return clients.size() + " clients";
+	}
+
+	public long executed(int client) {
+		Client c = clients.get(client);
+		return (c != null) ? c.executed : 0;
+	}
+
+	public void setExecuted(int client, long executed) {
+		Client c = clients.get(client);
+		if (c == null) {
+			clients.put(client, new Client(executed, null));
+		} else {
+			c.executed = executed;
+		}
+	}
+
+	public void markExecuted(REFITUniqueID uid) {
+		setExecuted(uid.nodeID, uid.seqNr + 1);
+	}
+
+	public IDEMResult result(int client) {
+		Client c = clients.get(client);
+		return (c != null) ? c.result : null;
+	}
+
+	public void setResult(int client, IDEMResult result) {
+		Client c = clients.get(client);
+		if (c == null) {
+			clients.put(client, new Client(0, result));
+		} else {
+			c.result = result;
+		}
+	}
+
+	// Drops results of requests ordered before the horizon. Sequence numbers are retained as they
+	// are required to detect duplicates.
+	public void evictResults(long horizon) {
+		clients.forEach((client, c) -> {
+			if (c.result != null && c.result.sqn < horizon) c.result = null;
+		});
+	}
+
+	public IDEMClientTable copy() {
+		IDEMClientTable copy = new IDEMClientTable(clients.size());
+		clients.forEach((client, c) -> copy.clients.put(client, new Client(c.executed, c.result)));
+		return copy;
+	}
+
+	// Clients are serialized in ascending order to yield identical checkpoints on all replicas
+	public void serialize(ByteBuffer buffer) {
+		int[] ids = clients.keys();
+		buffer.putInt(ids.length);
+		for (int client : ids) {
+			Client c = clients.get(client);
+			buffer.putShort((short) client);
+			buffer.putLong(c.executed);
+			if (c.result == null) {
+				buffer.put((byte) 0);
+			} else {
+				buffer.put((byte) 1);
+				c.result.serialize(buffer);
+			}
+		}
+	}
+
+	public int payloadSize() {
+		int[] size = { Integer.BYTES };
+		clients.forEach((client, c) -> {
+			size[0] += Short.BYTES + Long.BYTES + Byte.BYTES;
+			if (c.result != null) size[0] += c.result.payloadSize();
+		});
+		return size[0];
+	}
+}
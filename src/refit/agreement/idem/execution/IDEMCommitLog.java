@@ -0,0 +1,65 @@
+package refit.agreement.idem.execution;
+
+import refit.message.REFITRequest;
+import refit.message.REFITUniqueID;
+
+// Retains the most recently executed sequence numbers, allowing lagging replicas to catch up
+// by replaying a suffix of the log instead of transferring a full checkpoint
+public class IDEMCommitLog {
+
+	private final REFITUniqueID[] ids;
+	// Null if the request was a duplicate and therefore not executed
+	private final REFITRequest[] requests;
+	// Whether the request expired and was skipped instead of executed
+	private final boolean[] skipped;
+
+	// Log covers [start, end)
+	private long start;
+	private long end;
+
+	public IDEMCommitLog(int depth) {
+		this.ids = new REFITUniqueID[depth];
+		this.requests = new REFITRequest[depth];
+		this.skipped = new boolean[depth];
+		this.start = 0;
+		this.end = 0;
+	}
+
+	private int idx(long sqn) {
+		return (int) (sqn % ids.length);
+	}
+
+	public void add(long sqn, REFITUniqueID id, REFITRequest request, boolean skip) {
+		if (sqn != end) reset(sqn);
+		ids[idx(sqn)] = id;
+		requests[idx(sqn)] = request;
+		skipped[idx(sqn)] = skip;
+		end = sqn + 1;
+		if (end - start > ids.length) start = end - ids.length;
+	}
+
+	public void reset(long sqn) {
+		start = sqn;
+		end = sqn;
+	}
+
+	public boolean covers(long sqn) {
+		return sqn >= start && sqn < end;
+	}
+
+	public long end() {
+		return end;
+	}
+
+	public REFITUniqueID getID(long sqn) {
+		return ids[idx(sqn)];
+	}
+
+	public REFITRequest getRequest(long sqn) {
+		return requests[idx(sqn)];
+	}
+
+	public boolean isSkipped(long sqn) {
+		return skipped[idx(sqn)];
+	}
+}
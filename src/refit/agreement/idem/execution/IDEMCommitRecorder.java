@@ -0,0 +1,105 @@
+package refit.agreement.idem.execution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import refit.config.REFITConfig;
+import refit.message.REFITRequest;
+import refit.message.REFITUniqueID;
+import refit.util.REFITLogger;
+
+// Records the stream of executed sequence numbers to a file which can be replayed by IDEMReplay
+public class IDEMCommitRecorder {
+
+	public static final class IDEMRecord {
+		public final long sqn;
+		public final REFITUniqueID uid;
+		// Null if the request was a duplicate and therefore not executed
+		public final ByteBuffer payload;
+
+		private IDEMRecord(long sqn, REFITUniqueID uid, ByteBuffer payload) {
+			this.sqn = sqn;
+			this.uid = uid;
+			this.payload = payload;
+		}
+	}
+
+	private final DataOutputStream out;
+	private byte[] scratch;
+
+
+	public IDEMCommitRecorder(short replicaID) {
+		File file = new File(REFITConfig.OUTPUT_DIRECTORY, "commits-" + replicaID + ".rec");
+		try {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			this.scratch = new byte[1024];
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create commit record " + file, e);
+		}
+	}
+
+	public void record(long sqn, REFITUniqueID uid, REFITRequest request) {
+		try {
+			out.writeLong(sqn);
+			out.writeShort(uid.nodeID);
+			out.writeLong(uid.seqNr);
+			if (request == null) {
+				out.writeInt(-1);
+			} else {
+				// Payloads may be read-only, hence copy them instead of accessing the backing array
+				ByteBuffer payload = request.getPayload();
+				int length = payload.remaining();
+				if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+				payload.get(scratch, 0, length);
+				out.writeInt(length);
+				out.write(scratch, 0, length);
+			}
+		} catch (IOException e) {
+			REFITLogger.logWarning(this, "Failed to record " + sqn + ": " + e);
+		}
+	}
+
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			REFITLogger.logWarning(this, "Failed to flush commit record: " + e);
+		}
+	}
+
+	public static List<IDEMRecord> read(File file) throws IOException {
+		List<IDEMRecord> records = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			while (true) {
+				long sqn;
+				try {
+					sqn = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				REFITUniqueID uid = new REFITUniqueID(in.readShort(), in.readLong());
+				int length = in.readInt();
+				ByteBuffer payload = null;
+				if (length >= 0) {
+					byte[] data = new byte[length];
+					in.readFully(data);
+					payload = ByteBuffer.wrap(data);
+				}
+				records.add(new IDEMRecord(sqn, uid, payload));
+			}
+		} catch (EOFException e) {
+			// Ignore a truncated last record
+		}
+		return records;
+	}
+}
@@ -0,0 +1,54 @@
+package refit.agreement.idem.execution;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import refit.application.REFITApplicationServer;
+
+// Estimates the execution cost of requests relative to an average request. Uses the estimate of the
+// application if available, otherwise learns the mean service time of each operation type.
+public class IDEMCostEstimator {
+
+	// Weight of a new sample in the moving averages
+	private static final double ALPHA = 0.01;
+	private static final Object UNTYPED = new Object();
+
+	private final REFITApplicationServer app;
+	private final HashMap<Object, double[]> typeMeans;
+	private double mean;
+
+
+	public IDEMCostEstimator(REFITApplicationServer app) {
+		this.app = app;
+		this.typeMeans = new HashMap<>();
+		this.mean = 0;
+	}
+
+	public double estimate(ByteBuffer payload) {
+		double cost = app.estimateCost(payload);
+		if (cost >= 0) return cost;
+
+		double[] typeMean = typeMeans.get(type(payload));
+		if (typeMean == null || mean == 0) return 1;
+		return typeMean[0] / mean;
+	}
+
+	public void record(ByteBuffer payload, long serviceTimeInNs) {
+		if (app.estimateCost(payload) >= 0) return;
+
+		Object type = type(payload);
+		double[] typeMean = typeMeans.get(type);
+		if (typeMean == null) {
+			typeMean = new double[] { serviceTimeInNs };
+			typeMeans.put(type, typeMean);
+		} else {
+			typeMean[0] += ALPHA * (serviceTimeInNs - typeMean[0]);
+		}
+		mean = (mean == 0) ? serviceTimeInNs : mean + ALPHA * (serviceTimeInNs - mean);
+	}
+
+	private Object type(ByteBuffer payload) {
+		Object type = app.getOperationType(payload);
+		return (type != null) ? type : UNTYPED;
+	}
+}
@@ -0,0 +1,54 @@
+package refit.agreement.idem.execution;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import refit.config.REFITConfig;
+import refit.message.REFITMessage;
+import refit.message.REFITMessageTemplate;
+import refit.message.REFITRequest;
+import refit.message.REFITRequest.RequestMode;
+import refit.stage.REFITReplicaContext;
+
+// Rejects client requests in the network workers while the execution stage has no room for new
+// requests, before they are copied, decoded and verified. Only plain requests the execution stage
+// would reject are affected, panics, forwards and weak reads served from snapshots take the regular
+// path. Early rejected requests are not kept for a later execution as the regular rejects are.
+public class IDEMEarlyReject {
+
+	private final REFITReplicaContext replica;
+	private final REFITMessageTemplate rejectTemplate;
+	// Published by the execution stage, read by the network workers
+	private volatile boolean overloaded;
+	private final AtomicInteger rejected;
+
+
+	public IDEMEarlyReject(REFITReplicaContext replica, REFITMessageTemplate rejectTemplate) {
+		this.replica = replica;
+		this.rejectTemplate = rejectTemplate;
+		this.overloaded = false;
+		this.rejected = new AtomicInteger();
+	}
+
+	public void setOverloaded(boolean overloaded) {
+		if (this.overloaded != overloaded) this.overloaded = overloaded;
+	}
+
+	// Returns the number of requests rejected since the last call
+	public int drainRejected() {
+		return (rejected.get() == 0) ? 0 : rejected.getAndSet(0);
+	}
+
+	// Called by the network worker of the client, returns false if the request was rejected
+	public boolean admit(ByteBuffer message, short clientID) {
+		if (!overloaded) return true;
+		if (!REFITRequest.peekIsRequest(message) || REFITMessage.peekFrom(message) != clientID) return true;
+		if (REFITRequest.peekIsPanicOrForward(message)) return true;
+		RequestMode mode = REFITRequest.peekMode(message);
+		if (mode == null || (mode == RequestMode.READ_WEAK && REFITConfig.SNAPSHOT_READERS > 0)) return true;
+
+		rejected.incrementAndGet();
+		replica.sendMessageToClient(rejectTemplate, REFITMessage.peekSeqNr(message), clientID);
+		return false;
+	}
+}
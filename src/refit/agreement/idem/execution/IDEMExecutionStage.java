@@ -1,7 +1,6 @@
 package refit.agreement.idem.execution;
 
-import java.util.HashMap;
-import java.util.Random;
+import java.util.Arrays;
 
 import refit.agreement.idem.IDEMEvent.IDEMCheckpointEvent;
 import refit.agreement.idem.IDEMEvent.IDEMViewEvent;
@@ -13,29 +12,36 @@ import refit.agreement.idem.IDEMMessage.IDEMPropose;
 import refit.agreement.idem.IDEMMessage.IDEMReject;
 import refit.agreement.idem.IDEMMessage.IDEMRequire;
 import refit.agreement.idem.IDEMMessage.IDEMForwardRequest;
-import refit.agreement.idem.IDEMRequestSet;
+import refit.agreement.idem.IDEMMessage.IDEMLogMessage;
+import refit.agreement.idem.IDEMMessage.IDEMLogRequest;
 import refit.agreement.idem.IDEMStage;
+import refit.agreement.idem.execution.IDEMSnapshotReader.IDEMSnapshotRead;
+import refit.agreement.idem.order.IDEMElement;
 import refit.agreement.idem.order.IDEMWindow;
 import refit.application.REFITApplicationServer;
 import refit.application.REFITResult;
+import refit.application.REFITSnapshotApplicationServer;
 import refit.config.REFITConfig;
 import refit.message.REFITEvent;
+import refit.message.REFITMessageTemplate;
 import refit.message.REFITReply;
 import refit.message.REFITRequest;
+import refit.message.REFITRequest.RequestMode;
 import refit.message.REFITUniqueID;
 import refit.scheduler.REFITSchedulerTaskType;
 import refit.scheduler.REFITTimer;
 import refit.stage.REFITObserver;
 import refit.stage.REFITReplicaContext;
 import refit.util.REFITLogger;
+import refit.util.REFITOperationProfiler;
 
 public class IDEMExecutionStage extends IDEMStage {
 
-	private final IDEMRequestSet<REFITRequest> pendingRequests;
-	private final HashMap<REFITUniqueID, REFITRequest> cachedRequests;
+	private final IDEMPendingRequests pendingRequests;
+	private final IDEMPendingRequests cachedRequests;
 	private long next;
 	private int view;
-	private long[] executed;
+	private IDEMClientTable clients;
 
 	// Store the latest rejected request for each client as there is a good chance
 	// that this will still be executed. We only want to store the latest request for
@@ -46,12 +52,28 @@ public class IDEMExecutionStage extends IDEMStage {
 	// system's performance as long as there is no fault.
 	private final IDEMRecentlyRejected recentlyRejected;
 	private final IDEMRejectQueue rejectQueue;
+	// Rejects only differ in their uid and load hints and are encoded directly into the client connection's send buffer
+	private static final REFITUniqueID REJECT_TEMPLATE_UID = new REFITUniqueID((short) 0, 0);
+	private final REFITMessageTemplate rejectTemplate;
+	private final IDEMLoadMonitor loadMonitor;
+	private final IDEMAdmissionController admission;
+	private final IDEMCostEstimator costEstimator;
+	private final IDEMTenantAdmission tenants;
+	private final IDEMLoadGossip loadGossip;
+	public final IDEMEarlyReject earlyReject;
+	private static final double AQM_LOAD = 0.6;
+	// Moving average of the time in ms requests wait until their execution
+	private static final double QUEUEING_DELAY_WEIGHT = 0.05;
+	private double queueingDelay;
 
 	private IDEMWindow commits;
-	private IDEMResult[] results;
 	public IDEMCheckpoint checkpoint;
 	private IDEMCheckpointMessage checkpointMessage;
 	private long checkpointRequested;
+	private final IDEMCommitLog commitLog;
+	private long logRequested;
+	// Latest log received from each replica, entries are only replayed once f+1 replicas agree on them
+	private final IDEMLogMessage[] logs;
 
 
 	private REFITTimer forwardTimer;
@@ -59,6 +81,10 @@ public class IDEMExecutionStage extends IDEMStage {
 
 	private boolean awaitingVC;
 	private final REFITApplicationServer app;
+	private final IDEMReadCoalescer readCoalescer;
+	private final IDEMSnapshotReader snapshotReader;
+	private final IDEMCommitRecorder recorder;
+	private final REFITOperationProfiler profiler;
 
 	public final REFITObserver<IDEMPropose> requireSender;
 
@@ -68,30 +94,54 @@ public class IDEMExecutionStage extends IDEMStage {
 	public IDEMExecutionStage(REFITReplicaContext replica, REFITApplicationServer application) {
 		super(REFITSchedulerTaskType.EXECUTION_STAGE, replica);
 
-		this.pendingRequests = new IDEMRequestSet();
-		this.cachedRequests = new HashMap<>(REFITConfig.CHECKPOINT_INTERVAL);
+		if (REFITConfig.PENDING_SLAB_SLOTS > 0) {
+			this.pendingRequests = new IDEMRequestSlab(REFITConfig.PENDING_SLAB_SLOTS, REFITConfig.PENDING_SLAB_SLOT_SIZE);
+			this.cachedRequests = new IDEMRequestSlab(REFITConfig.CHECKPOINT_INTERVAL, REFITConfig.PENDING_SLAB_SLOT_SIZE);
+		} else {
+			this.pendingRequests = new IDEMHeapPendingRequests();
+			this.cachedRequests = new IDEMHeapPendingRequests();
+		}
 		this.next = 0;
 		this.view = 0;
-		this.executed = new long[REFITConfig.TOTAL_NR_OF_CLIENTS];
-
+		this.clients = new IDEMClientTable();
+
+		this.rejectTemplate = new REFITMessageTemplate(new IDEMReject(REJECT_TEMPLATE_UID, replica.id));
+		this.loadMonitor = new IDEMLoadMonitor();
+		this.admission = (REFITConfig.ADMISSION_TARGET > 0)
+				? new IDEMAdmissionController(REFITConfig.ADMISSION_TARGET, REFITConfig.ADMISSION_INTERVAL, REFITConfig.REJECT_THRESHOLD) : null;
+		this.costEstimator = (REFITConfig.COST_BUDGET > 0) ? new IDEMCostEstimator(application) : null;
+		this.tenants = (REFITConfig.TENANTS.length > 0) ? new IDEMTenantAdmission(REFITConfig.TENANTS, AQM_LOAD) : null;
+		this.loadGossip = REFITConfig.LOAD_GOSSIP ? new IDEMLoadGossip() : null;
+		// Requests waiting in the reject queue must be decoded
+		this.earlyReject = (REFITConfig.EARLY_REJECT && REFITConfig.REJECT_GRACE == 0) ? new IDEMEarlyReject(replica, rejectTemplate) : null;
 		if (REFITConfig.REJECT_GRACE == 0) {
 			this.recentlyRejected = new IDEMRecentlyRejected();
 			this.rejectQueue = null;
 		} else {
-			this.rejectQueue = new IDEMRejectQueue(replica);
+			this.rejectQueue = new IDEMRejectQueue(replica, rejectTemplate);
 			this.recentlyRejected = rejectQueue.recentlyRejected;
 		}
 
 		this.commits = new IDEMWindow(0, REFITConfig.MAXIMUM_ORDER_INSTANCES_IN_PROGRESS);
-		this.results = new IDEMResult[REFITConfig.TOTAL_NR_OF_CLIENTS];
 
 		this.awaitingVC = false;
 		this.app = application;
+		this.readCoalescer = REFITConfig.COALESCE_READS ? new IDEMReadCoalescer(application) : null;
+		this.profiler = (REFITConfig.PROFILE_INTERVAL > 0) ? new REFITOperationProfiler("PROF" + replica.id, REFITConfig.PROFILE_INTERVAL) : null;
+		this.recorder = REFITConfig.RECORD_COMMITS ? new IDEMCommitRecorder(replica.id) : null;
+		// Applications without snapshot support execute all reads in order
+		this.snapshotReader = (REFITConfig.SNAPSHOT_READERS > 0 && application instanceof REFITSnapshotApplicationServer)
+				? new IDEMSnapshotReader((REFITSnapshotApplicationServer) application, REFITConfig.SNAPSHOT_READERS, this::progress) : null;
 
 		// Initial checkpoint
-		this.checkpoint = new IDEMCheckpoint(next, executed, results, app.createCheckpoint());
+		this.checkpoint = createCheckpoint();
 		this.checkpointMessage = null;
 		this.checkpointRequested = 0;
+		this.commitLog = (REFITConfig.CATCHUP_LOG_DEPTH > 0) ? new IDEMCommitLog(REFITConfig.CATCHUP_LOG_DEPTH) : null;
+		this.logRequested = -1;
+		this.logs = new IDEMLogMessage[REFITConfig.TOTAL_NR_OF_REPLICAS];
+
+		if (REFITConfig.BATCHED_EXECUTION) markBatched();
 
 		// Senders
 		this.requireSender = new REFITObserver<>();
@@ -125,6 +175,10 @@ public class IDEMExecutionStage extends IDEMStage {
 			handleCheckpointRequest((IDEMCheckpointRequest) message);
 		} else if (message.getClass() == IDEMCheckpointMessage.class) {
 			handleCheckpoint(((IDEMCheckpointMessage) message).checkpoint);
+		} else if (message.getClass() == IDEMLogRequest.class) {
+			handleLogRequest((IDEMLogRequest) message);
+		} else if (message.getClass() == IDEMLogMessage.class) {
+			handleLog((IDEMLogMessage) message);
 		} else if (message.getClass() == IDEMViewEvent.class) {
 			updateView(((IDEMViewEvent) message).view);
 		} else {
@@ -134,10 +188,10 @@ public class IDEMExecutionStage extends IDEMStage {
 	}
 
 	private void handleClientRequest(REFITRequest r) {
-		if (r.uid.seqNr < executed[r.uid.nodeID]) {
+		if (r.uid.seqNr < clients.executed(r.uid.nodeID)) {
 			// Resend reply
-			if (results[r.uid.nodeID].uid.equals(r.uid)) {
-				IDEMResult result = results[r.uid.nodeID];
+			IDEMResult result = clients.result(r.uid.nodeID);
+			if (result != null && result.uid.equals(r.uid)) {
 				REFITReply reply = new REFITReply(r.uid, replica.id, (short) 0, result.view, result.sqn , true, result.result.getReply(), result.mode, replica.id);
 				reply.markVerified();
 				reply.serializeMessage();
@@ -147,27 +201,65 @@ public class IDEMExecutionStage extends IDEMStage {
 		}
 		if (pendingRequests.containsKey(r.uid)) return;
 
+		// Weak reads do not need to be ordered, answer them based on the latest executed state
+		if (snapshotReader != null && r.mode == RequestMode.READ_WEAK && snapshotReader.supports(r)) {
+			snapshotReader.submit(r, next, view, false);
+			return;
+		}
+
+		// Reject request if it would likely expire before being executed. The estimate is only updated
+		// by executed requests, hence let it decay with each reject to eventually admit a probe again.
+		if (r.deadline > 0 && pendingRequests.size() > 0 && queueingDelay >= r.deadline) {
+			queueingDelay *= 1 - QUEUEING_DELAY_WEIGHT;
+			rejectRequest(r);
+			return;
+		}
+
 		// Reject request if we don't have space for a new request right now
-		double load = pendingRequests.size() / (double) REFITConfig.REJECT_THRESHOLD;
+		double load = load();
 		if (load >= 1) {
 			rejectRequest(r);
 			return;
-		} else if (REFITConfig.ACTIVE_QUEUE_MANAGEMENT && load >= 0.6) {
+		}
+		// Take the pre-emptive decisions on the load of most replicas, so that they agree on them
+		if (loadGossip != null) load = loadGossip.median(replica.id, load, System.currentTimeMillis());
+		if (tenants != null) {
+			if (!tenants.admit(r.uid.nodeID, load, System.currentTimeMillis())) {
+				rejectRequest(r);
+				return;
+			}
+		} else if (REFITConfig.ACTIVE_QUEUE_MANAGEMENT && load >= AQM_LOAD) {
 			// Active Queue Management: Reject requests pre-emptive if registering a high load
 			int activeClientGroup = REFITConfig.currentClientGroup();
 			int clientGroup = r.uid.nodeID % REFITConfig.CLIENT_GROUPS;
-			if (activeClientGroup != clientGroup) {
-				Random randomGenerator = new Random(activeClientGroup + r.uid.nodeID);
-				if (randomGenerator.nextDouble() < load) {
-					rejectRequest(r);
-					return;
-				}
+			if (activeClientGroup != clientGroup && uniform(activeClientGroup, r.uid.nodeID) < load) {
+				rejectRequest(r);
+				return;
 			}
 		}
 		if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Accepting request " + r.uid);
 		processRequest(r);
 	}
 
+	// Deterministic pseudo-random number in [0, 1) for the pair, stable for the duration of a time slice
+	private static double uniform(int group, int client) {
+		long h = ((long) group << 32 | (client & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 32;
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	private double load() {
+		double load = pendingRequests.size() / (double) rejectThreshold();
+		if (costEstimator != null) load = Math.max(load, pendingRequests.cost() / REFITConfig.COST_BUDGET);
+		return load;
+	}
+
+	private int rejectThreshold() {
+		return (admission != null) ? admission.limit() : REFITConfig.REJECT_THRESHOLD;
+	}
+
 	private void rejectRequest(REFITRequest r) {
 		if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Rejecting request " + r.uid + ": " + pendingRequests.size());
 		if (REFITConfig.REJECT_GRACE == 0) {
@@ -177,21 +269,29 @@ public class IDEMExecutionStage extends IDEMStage {
 			// Only store the latest request for each client, as only this is important for
 			// up-to-date replicas.
 			recentlyRejected.add(r);
-
-			IDEMReject reject = new IDEMReject(r.uid, replica.id);
-			reject.serializeMessage();
-			reject.markVerified();
-			replica.sendMessageToClient(reject, r.uid.nodeID);
+			updateRejectHints();
+			replica.sendMessageToClient(rejectTemplate, r.uid.seqNr, r.uid.nodeID);
 		} else {
+			updateRejectHints();
 			rejectQueue.add(r);
 		}
 	}
 
+	private void updateRejectHints() {
+		loadMonitor.rejected();
+		updateRejectTemplate();
+	}
+
+	private void updateRejectTemplate() {
+		if (!loadMonitor.update(System.currentTimeMillis(), pendingRequests.size(), rejectThreshold())) return;
+		rejectTemplate.update(new IDEMReject(REJECT_TEMPLATE_UID, replica.id, loadMonitor.retryAfter(), loadMonitor.load()));
+	}
+
 	private void handleForward(REFITRequest r) {
-		if (r.uid.seqNr < executed[r.uid.nodeID]) return;
+		if (r.uid.seqNr < clients.executed(r.uid.nodeID)) return;
 		if (pendingRequests.containsKey(r.uid)) {
 			// Forward request to proposer
-			IDEMRequire require = new IDEMRequire(r.uid, replica.id);
+			IDEMRequire require = new IDEMRequire(r.uid, r.deadline, IDEMLoadGossip.percent(load()), replica.id);
 			tellAll(require, requireSender);
 			return;
 		}
@@ -205,13 +305,18 @@ public class IDEMExecutionStage extends IDEMStage {
 
 	private void processRequest(REFITRequest r) {
 		r.timestamp = System.currentTimeMillis() + REFITConfig.FORWARD_TIMEOUT;
-		pendingRequests.put(r.uid, r);
+		if (costEstimator != null) r.cost = costEstimator.estimate(r.getPayload());
+		// Report the load the request was admitted at, the load including it would make others reject
+		// until this replica admits the next request
+		short load = IDEMLoadGossip.percent(load());
+		pendingRequests.put(r);
+		publishLoad();
 
 		// Try executing commands (in case this was already ordered)
-		tryExecute();
+		requestExecution();
 
-		if (r.uid.seqNr >= executed[r.uid.nodeID]) {
-			IDEMRequire require = new IDEMRequire(r.uid, replica.id);
+		if (r.uid.seqNr >= clients.executed(r.uid.nodeID)) {
+			IDEMRequire require = new IDEMRequire(r.uid, r.deadline, load, replica.id);
 			if (REFITLogger.LOG_ORDER) REFITLogger.logOrder(this, "Sending Require " + require.uid);
 			tellAll(require, requireSender);
 		}
@@ -220,7 +325,7 @@ public class IDEMExecutionStage extends IDEMStage {
 	private void handleForwardRequest(IDEMForwardRequest fr) {
 		if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this,"Received forward request " + fr.uid);
 		REFITRequest r = null;
-		if (fr.uid.seqNr < executed[fr.uid.nodeID]) {
+		if (fr.uid.seqNr < clients.executed(fr.uid.nodeID)) {
 			r = cachedRequests.get(fr.uid);
 			if (r == null) {
 				sendCheckpoint(fr.from);
@@ -240,6 +345,7 @@ public class IDEMExecutionStage extends IDEMStage {
 	}
 
 	private void handleCommit(IDEMCommit c) {
+		if (loadGossip != null) loadGossip.report(c.from, c.load, System.currentTimeMillis());
 		if (c.view < view) return;
 		if (c.view > view) {
 			view = c.view;
@@ -254,6 +360,11 @@ public class IDEMExecutionStage extends IDEMStage {
 		awaitingVC = false;
 		vcTimer.clear();
 
+		// Catch up using the log of other replicas if window is too far ahead
+		if (commitLog != null && commits.start > next) {
+			if (commits.start > logRequested) requestLog();
+			return;
+		}
 		// Request checkpoint if window is too far ahead
 		if (commits.start > next && commits.start > checkpointRequested) {
 			if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Request checkpoint for " + commits.start);
@@ -262,10 +373,31 @@ public class IDEMExecutionStage extends IDEMStage {
 			this.checkpointRequested = commits.start + REFITConfig.CHECKPOINT_INTERVAL;
 			tellOthers(ckptReq);
 		} else {
-			tryExecute();
+			requestExecution();
 		}
 	}
 
+	// Lets the network workers reject requests as long as there is no room for new requests
+	private void publishLoad() {
+		if (earlyReject == null) return;
+		int rejected = earlyReject.drainRejected();
+		if (rejected > 0) {
+			loadMonitor.rejected(rejected);
+			updateRejectTemplate();
+		}
+		earlyReject.setOverloaded(load() >= 1);
+	}
+
+	private void requestExecution() {
+		// Batched stages execute once after handling all queued messages
+		if (!requestBatchProcessing()) tryExecute();
+	}
+
+	@Override
+	protected void processBatch() {
+		tryExecute();
+	}
+
 	private boolean requestedForward = false;
 	private void tryExecute() {
 		// Still waiting for a checkpoint
@@ -275,11 +407,19 @@ public class IDEMExecutionStage extends IDEMStage {
 			if (!commits.match(n, REFITConfig.FAULTS_TO_TOLERATE + 1, replica.id)) break;
 
 			// Get request
-			REFITUniqueID id = commits.get(n).id;
+			IDEMElement element = commits.get(n);
+			REFITUniqueID id = element.id;
+			REFITRequest request = null;
+
+			// Shed requests which expired before they were proposed instead of executing them
+			if (element.skip) {
+				skip(n, id);
+				continue;
+			}
 
 			// Duplicate detection: only execute request if not already
-			if (id.seqNr >= executed[id.nodeID]) {
-				REFITRequest request = pendingRequests.get(id);
+			if (id.seqNr >= clients.executed(id.nodeID)) {
+				request = pendingRequests.get(id);
 				// We don't have the corresponding request yet
 				if (request == null) {
 					// Check if we recently rejected this request
@@ -296,41 +436,19 @@ public class IDEMExecutionStage extends IDEMStage {
 					}
 				}
 				requestedForward = false;
-
-				// Execute request and update state
-				if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Executing on " + n + ": " + request.uid);
-				REFITResult result = app.processRequest(request.uid, n, request.getPayload());
-				REFITReply reply = new REFITReply(request.uid, replica.id, (short) 0, view, n, true, result.getReply(), request.mode, replica.id);
-				reply.markVerified();
-				reply.serializeMessage();
-				replica.sendMessageToClient(reply, reply.uid.nodeID);
-				executed[id.nodeID] = id.seqNr + 1;
-				results[id.nodeID] = new IDEMResult(id, result, n, view, request.mode);
-				pendingRequests.remove(id);
-				cachedRequests.put(id, request);
-			}
-
-			next = n + 1;
-			// Create checkpoint
-			if (next % REFITConfig.CHECKPOINT_INTERVAL == 0) {
-				if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Creating checkpoint for sqn " + next);
-				checkpoint = new IDEMCheckpoint(next, executed, results, app.createCheckpoint());
-				checkpointMessage = null;
-				checkpointSender.tell(new IDEMCheckpointEvent(checkpoint));
-				// Delete cached requests now included in checkpoint
-				cachedRequests.clear();
 			}
+			execute(n, id, request, false);
 		}
 
 		// Fill empty request slots from queue if we have enough space
 		if (REFITConfig.REJECT_GRACE != 0) {
-			while (pendingRequests.size() < REFITConfig.REJECT_THRESHOLD) {
+			while (pendingRequests.size() < rejectThreshold()) {
 				// Check whether we have requests waiting to be executed in the rejectQueue
 				REFITRequest newRequest = rejectQueue.get();
 				if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Checking for new requests in requestQueue: " + (newRequest == null ? "null" : newRequest.uid));
 				while (newRequest != null) {
 					// Check whether we already processed this request
-					if (newRequest.uid.seqNr < executed[newRequest.uid.nodeID] || pendingRequests.containsKey(newRequest.uid)) {
+					if (newRequest.uid.seqNr < clients.executed(newRequest.uid.nodeID) || pendingRequests.containsKey(newRequest.uid)) {
 						newRequest = rejectQueue.get();
 						continue;
 					}
@@ -340,6 +458,204 @@ public class IDEMExecutionStage extends IDEMStage {
 				if (newRequest == null) break;
 			}
 		}
+		publishLoad();
+	}
+
+	private void skip(long n, REFITUniqueID id) {
+		if (id.seqNr >= clients.executed(id.nodeID)) {
+			if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Skipping expired request on " + n + ": " + id);
+			clients.markExecuted(id);
+			// The result of the client's previous request must not answer retransmissions of this one
+			clients.setResult(id.nodeID, null);
+			pendingRequests.remove(id);
+			replica.sendMessageToClient(rejectTemplate, id.seqNr, id.nodeID);
+		}
+		execute(n, id, null, true);
+	}
+
+	private void execute(long n, REFITUniqueID id, REFITRequest request, boolean skipped) {
+		if (request != null) {
+			if (snapshotReader != null && snapshotReader.supports(request)) {
+				// The read only observes requests ordered before it and therefore does not delay subsequent ones
+				if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Reading snapshot on " + n + ": " + request.uid);
+				snapshotReader.submit(request, n, view, true);
+			} else {
+				// Execute request and update state
+				if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Executing on " + n + ": " + request.uid);
+				long start = (profiler != null || costEstimator != null) ? System.nanoTime() : 0;
+				REFITResult result = (readCoalescer != null) ? readCoalescer.processRequest(request.uid, n, request.getPayload())
+						: app.processRequest(request.uid, n, request.getPayload());
+				if (profiler != null || costEstimator != null) {
+					long serviceTime = System.nanoTime() - start;
+					if (profiler != null) profiler.record(app.getOperationType(request.getPayload()), serviceTime);
+					if (costEstimator != null) costEstimator.record(request.getPayload(), serviceTime);
+				}
+				REFITReply reply = new REFITReply(request.uid, replica.id, (short) 0, view, n, true, result.getReply(), request.mode, replica.id);
+				reply.markVerified();
+				reply.serializeMessage();
+				replica.sendMessageToClient(reply, reply.uid.nodeID);
+				clients.setResult(id.nodeID, new IDEMResult(id, result, n, view, request.mode));
+			}
+			// Requests taken from the reject cache never waited in the pending requests
+			if (request.timestamp != 0) {
+				long now = System.currentTimeMillis();
+				long sojourn = now - (request.timestamp - REFITConfig.FORWARD_TIMEOUT);
+				queueingDelay += QUEUEING_DELAY_WEIGHT * (sojourn - queueingDelay);
+				if (admission != null) admission.recordSojourn(sojourn, now);
+			}
+			loadMonitor.executed();
+			clients.markExecuted(id);
+			pendingRequests.remove(id);
+			cachedRequests.put(request);
+		}
+		if (commitLog != null) commitLog.add(n, id, request, skipped);
+		if (recorder != null) recorder.record(n, id, request);
+
+		next = n + 1;
+		// Create checkpoint
+		if (next % REFITConfig.CHECKPOINT_INTERVAL == 0) {
+			if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Creating checkpoint for sqn " + next);
+			checkpoint = createCheckpoint();
+			checkpointMessage = null;
+			if (recorder != null) recorder.flush();
+			checkpointSender.tell(new IDEMCheckpointEvent(checkpoint));
+			// Delete cached requests now included in checkpoint
+			cachedRequests.clear();
+			// Bound the number of retained reads
+			if (readCoalescer != null) readCoalescer.clear();
+		}
+	}
+
+	private IDEMCheckpoint createCheckpoint() {
+		if (snapshotReader != null) {
+			// The checkpoint must include the results of all reads up to this point
+			awaitReads();
+			snapshotReader.release(next);
+		}
+		// Evicting at checkpoints keeps the client table identical on all replicas
+		if (REFITConfig.RESULT_RETENTION > 0) clients.evictResults(next - REFITConfig.RESULT_RETENTION);
+		return new IDEMCheckpoint(next, clients, app.createCheckpoint());
+	}
+
+	@Override
+	protected void stageComplete() {
+		if (snapshotReader == null) return;
+		IDEMSnapshotRead read;
+		while ((read = snapshotReader.poll()) != null) completeRead(read);
+	}
+
+	private void awaitReads() {
+		IDEMSnapshotRead read;
+		while ((read = snapshotReader.take()) != null) completeRead(read);
+	}
+
+	private void completeRead(IDEMSnapshotRead read) {
+		REFITRequest request = read.request;
+		REFITResult result = read.getResult();
+		REFITReply reply = new REFITReply(request.uid, replica.id, (short) 0, read.view, read.sqn, true, result.getReply(), request.mode, replica.id);
+		reply.markVerified();
+		reply.serializeMessage();
+		replica.sendMessageToClient(reply, reply.uid.nodeID);
+		// Keep the result for resends unless the client already moved on
+		if (read.ordered && clients.executed(request.uid.nodeID) == request.uid.seqNr + 1) {
+			clients.setResult(request.uid.nodeID, new IDEMResult(request.uid, result, read.sqn, read.view, request.mode));
+		}
+	}
+
+	private void requestLog() {
+		if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Request log for " + next);
+		// Avoid requesting the log multiple times. Ask all replicas as single ones may be behind or faulty
+		// and drop the request.
+		this.logRequested = commits.start + REFITConfig.CHECKPOINT_INTERVAL;
+		tellOthers(new IDEMLogRequest(next, replica.id));
+	}
+
+	private void handleLogRequest(IDEMLogRequest logReq) {
+		long from = logReq.uid.seqNr;
+		if (from >= next) return;
+		if (commitLog == null || !commitLog.covers(from)) {
+			// Fall back to checkpoint if the log does not reach back far enough
+			if (checkpoint.sqn > from) sendCheckpoint(logReq.from);
+			return;
+		}
+
+		// Limit message size to what the receiver is able to handle
+		int budget = REFITConfig.REPLICA_NETWORK_RECEIVE_BUFFER_SIZE / 2;
+		long to = from;
+		while (to < commitLog.end()) {
+			budget -= IDEMLogMessage.entrySize(commitLog.getRequest(to));
+			if (budget < 0 && to > from) break;
+			to++;
+		}
+		REFITUniqueID[] ids = new REFITUniqueID[(int) (to - from)];
+		REFITRequest[] requests = new REFITRequest[ids.length];
+		boolean[] skipped = new boolean[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = commitLog.getID(from + i);
+			requests[i] = commitLog.getRequest(from + i);
+			skipped[i] = commitLog.isSkipped(from + i);
+		}
+		IDEMLogMessage log = new IDEMLogMessage(from, ids, requests, skipped, replica.id);
+		log.serializeMessage();
+		log.markVerified();
+		if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Sending log " + from + "-" + to + " to " + logReq.from);
+		replica.replicaUnicast(log, logReq.from);
+	}
+
+	private void handleLog(IDEMLogMessage log) {
+		// Only accept logs while catching up
+		if (commitLog == null || logRequested < 0 || next >= commits.start) return;
+		if (log.from < 0 || log.from >= logs.length || log.start() > next) return;
+		logs[log.from] = log;
+		long before = next;
+
+		IDEMLogMessage agreed;
+		while ((agreed = agreedLog(next)) != null) {
+			long n = next;
+			int i = (int) (n - agreed.start());
+			REFITUniqueID id = agreed.ids[i];
+			if (agreed.skipped[i]) {
+				skip(n, id);
+				continue;
+			}
+			REFITRequest request = null;
+			if (id.seqNr >= clients.executed(id.nodeID)) {
+				request = agreed.requests[i];
+				if (request == null) {
+					// Our state diverges from the sender's, only a checkpoint can help
+					if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Request checkpoint for " + commits.start);
+					this.checkpointRequested = commits.start + REFITConfig.CHECKPOINT_INTERVAL;
+					tellOthers(new IDEMCheckpointRequest(commits.start, replica.id));
+					return;
+				}
+			}
+			execute(n, id, request, false);
+		}
+
+		// Wait for further logs to agree
+		if (next == before) return;
+		if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Replayed log from " + before + " up to " + next);
+		requestedForward = false;
+		if (next < commits.start) {
+			requestLog();
+		} else {
+			logRequested = -1;
+			Arrays.fill(logs, null);
+			requestExecution();
+		}
+	}
+
+	// Returns a log whose entry for the given sequence number is shared by at least f+1 logs
+	private IDEMLogMessage agreedLog(long n) {
+		for (IDEMLogMessage candidate : logs) {
+			if (candidate == null || !candidate.covers(n)) continue;
+			int votes = 0;
+			for (IDEMLogMessage other : logs) {
+				if (other != null && other.covers(n) && candidate.agrees(other, n)) votes++;
+			}
+			if (votes > REFITConfig.FAULTS_TO_TOLERATE) return candidate;
+		}
+		return null;
 	}
 
 	private void handleCheckpointRequest(IDEMCheckpointRequest ckptReq) {
@@ -351,25 +667,27 @@ public class IDEMExecutionStage extends IDEMStage {
 		if (ckpt.sqn <= next) return;
 
 		if (REFITLogger.LOG_CHECKPOINT) REFITLogger.logCheckpoint(this, "Applying new checkpoint for " + ckpt.sqn);
+		if (snapshotReader != null) awaitReads();
 		this.next = ckpt.sqn;
-		this.executed = ckpt.executed;
-		this.results = ckpt.results;
+		this.clients = ckpt.clients.copy();
 		this.checkpoint = ckpt;
 		this.checkpointMessage = null;
 		this.app.applyCheckpoint(ckpt.state);
+		if (commitLog != null) commitLog.reset(next);
+		if (readCoalescer != null) readCoalescer.clear();
 
 		checkpointSender.tell(new IDEMCheckpointEvent(checkpoint));
 
 		// Update request stores
 		cachedRequests.clear();
-		pendingRequests.removeExecuted(executed);
+		pendingRequests.removeExecuted(clients);
 
 		// Update requests if set
 		if (ckpt.requests != null) {
 			for (REFITRequest r : ckpt.requests.values()) {
 				r.timestamp = System.currentTimeMillis() + REFITConfig.FORWARD_TIMEOUT;
+				pendingRequests.put(r);
 			}
-			pendingRequests.putAll(ckpt.requests);
 		}
 
 		// Stop global view change timeout
@@ -378,7 +696,7 @@ public class IDEMExecutionStage extends IDEMStage {
 
 		requestedForward = false;
 
-		tryExecute();
+		requestExecution();
 	}
 
 	private void sendCheckpoint(short to) {
@@ -399,17 +717,11 @@ public class IDEMExecutionStage extends IDEMStage {
 	private void forwardTimeout() {
 		long now = System.currentTimeMillis();
 		// Forwarding mechanism
-		for (REFITRequest r : pendingRequests.values()) {
-			if (r.timestamp + REFITConfig.FORWARD_TIMEOUT <= now) {
-				if (!r.isForward) {
-					r.markForward();
-					r.serializeMessage(true); // Force re-serialization of message
-				}
-				tellOthers(r);
-				// Start view change timeout
-				if (!awaitingVC) vcTimer.startIfNotRunning(REFITConfig.REPLICA_REQUEST_TIMEOUT);
-			}
-		}
+		pendingRequests.forwardExpired(now - REFITConfig.FORWARD_TIMEOUT, r -> {
+			tellOthers(r);
+			// Start view change timeout
+			if (!awaitingVC) vcTimer.startIfNotRunning(REFITConfig.REPLICA_REQUEST_TIMEOUT);
+		});
 		// Restart forwarding timer
 		forwardTimer.startIfNotRunning(REFITConfig.FORWARD_TIMEOUT);
 	}
@@ -0,0 +1,80 @@
+package refit.agreement.idem.execution;
+
+import java.util.function.Consumer;
+
+import refit.agreement.idem.IDEMRequestSet;
+import refit.message.REFITRequest;
+import refit.message.REFITUniqueID;
+
+public class IDEMHeapPendingRequests implements IDEMPendingRequests {
+
+	private final IDEMRequestSet<REFITRequest> requests;
+	private double cost;
+
+	public IDEMHeapPendingRequests() {
+		this.requests = new IDEMRequestSet<REFITRequest>() {
+			@Override
+			protected void removed(REFITRequest r) {
+				if (r != null) cost -= r.cost;
+			}
+		};
+		this.cost = 0;
+	}
+
+	@Override
+	public void put(REFITRequest request) {
+		if (requests.containsKey(request.uid)) return;
+		requests.put(request.uid, request);
+		cost += request.cost;
+	}
+
+	@Override
+	public REFITRequest get(REFITUniqueID uid) {
+		return requests.get(uid);
+	}
+
+	@Override
+	public boolean containsKey(REFITUniqueID uid) {
+		return requests.containsKey(uid);
+	}
+
+	@Override
+	public void remove(REFITUniqueID uid) {
+		requests.remove(uid);
+	}
+
+	@Override
+	public void removeExecuted(IDEMClientTable clients) {
+		requests.removeExecuted(clients::executed);
+	}
+
+	@Override
+	public int size() {
+		return requests.size();
+	}
+
+	@Override
+	public double cost() {
+		// Avoid accumulating rounding errors
+		if (requests.isEmpty()) cost = 0;
+		return cost;
+	}
+
+	@Override
+	public void clear() {
+		requests.clear();
+		cost = 0;
+	}
+
+	@Override
+	public void forwardExpired(long deadline, Consumer<REFITRequest> action) {
+		for (REFITRequest r : requests.values()) {
+			if (r.timestamp > deadline) continue;
+			if (!r.isForward) {
+				r.markForward();
+				r.serializeMessage(true); // Force re-serialization of message
+			}
+			action.accept(r);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package refit.agreement.idem.execution;
+
+import java.util.Arrays;
+
+import refit.config.REFITConfig;
+
+// Load levels of the replicas as piggybacked on requires and commits. Basing admission on the median
+// lets replicas reach the same decision for most requests, as long as the majority reports similar
+// loads. Reports expire, otherwise replicas which reject everything would never learn that the others
+// have capacity again, as rejected requests produce no further commits.
+public class IDEMLoadGossip {
+
+	public static final short UNKNOWN = -1;
+
+	private final short[] loads;
+	private final long[] reported;
+	private final short[] sorted;
+
+
+	public IDEMLoadGossip() {
+		this.loads = new short[REFITConfig.TOTAL_NR_OF_REPLICAS];
+		this.reported = new long[REFITConfig.TOTAL_NR_OF_REPLICAS];
+		this.sorted = new short[REFITConfig.TOTAL_NR_OF_REPLICAS];
+		Arrays.fill(loads, UNKNOWN);
+	}
+
+	@Override
+	public String toString() {
+		return "GOSSIP" + Arrays.toString(loads);
+	}
+
+	// Load in percent of the admission limit
+	public static short percent(double load) {
+		return (short) Math.min(Short.MAX_VALUE, Math.round(load * 100));
+	}
+
+	public void report(short replica, short load, long now) {
+		if (load == UNKNOWN || replica < 0 || replica >= loads.length) return;
+		loads[replica] = load;
+		reported[replica] = now;
+	}
+
+	// Lower median of the own load and the recent reports of the other replicas
+	public double median(short self, double ownLoad, long now) {
+		int count = 0;
+		sorted[count++] = percent(ownLoad);
+		for (int i = 0; i < loads.length; i++) {
+			if (i == self || loads[i] == UNKNOWN || now - reported[i] > REFITConfig.REJECT_MAX_IDLE) continue;
+			sorted[count++] = loads[i];
+		}
+		Arrays.sort(sorted, 0, count);
+		return sorted[(count - 1) / 2] / 100.0;
+	}
+}
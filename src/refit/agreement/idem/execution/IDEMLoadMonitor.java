@@ -0,0 +1,87 @@
+package refit.agreement.idem.execution;
+
+import refit.config.REFITConfig;
+
+// Derives the load level of a replica and the time until it has capacity again from the number of
+// pending requests and the rates at which requests are executed and rejected
+public class IDEMLoadMonitor {
+
+	private static final long WINDOW_MS = 10;
+	// Weight of the latest window in the moving average of the execution rate
+	private static final double WEIGHT = 0.2;
+
+	private long windowStart;
+	private int executedInWindow;
+	private int rejectedInWindow;
+	// Executed and rejected requests per ms
+	private double rate;
+	private double rejectRate;
+
+	private int retryAfter;
+	private short load;
+
+
+	public IDEMLoadMonitor() {
+		this.windowStart = System.currentTimeMillis();
+		this.executedInWindow = 0;
+		this.rejectedInWindow = 0;
+		this.rate = 0;
+		this.rejectRate = 0;
+		this.retryAfter = 1;
+		this.load = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "LOAD[" + load + "%, " + retryAfter + "ms]";
+	}
+
+	public void executed() {
+		executedInWindow++;
+	}
+
+	public void rejected() {
+		rejectedInWindow++;
+	}
+
+	public void rejected(int count) {
+		rejectedInWindow += count;
+	}
+
+	// Returns whether the load level or the retry time changed
+	public boolean update(long now, int pending, int threshold) {
+		if (now - windowStart < WINDOW_MS) return false;
+		rate += WEIGHT * (executedInWindow / (double) (now - windowStart) - rate);
+		rejectRate += WEIGHT * (rejectedInWindow / (double) (now - windowStart) - rejectRate);
+		windowStart = now;
+		executedInWindow = 0;
+		rejectedInWindow = 0;
+
+		short newLoad = (short) Math.min(Short.MAX_VALUE, pending * 100L / Math.max(1, threshold));
+		// Time to work off the pending requests, stretched by the ratio of offered load to capacity as
+		// all rejected clients compete for the capacity that becomes available. Capped by the request
+		// timeout of the clients.
+		int newRetryAfter;
+		if (pending == 0) {
+			newRetryAfter = 1;
+		} else if (rate <= 0) {
+			newRetryAfter = REFITConfig.CLIENT_REQUEST_TIMEOUT;
+		} else {
+			double drain = pending / rate;
+			double overload = (rate + rejectRate) / rate;
+			newRetryAfter = (int) Math.max(1, Math.min(REFITConfig.CLIENT_REQUEST_TIMEOUT, Math.ceil(drain * overload)));
+		}
+		boolean changed = (newLoad != load || newRetryAfter != retryAfter);
+		load = newLoad;
+		retryAfter = newRetryAfter;
+		return changed;
+	}
+
+	public int retryAfter() {
+		return retryAfter;
+	}
+
+	public short load() {
+		return load;
+	}
+}
@@ -0,0 +1,32 @@
+package refit.agreement.idem.execution;
+
+import java.util.function.Consumer;
+
+import refit.message.REFITRequest;
+import refit.message.REFITUniqueID;
+
+// Requests received by the execution stage which were not executed yet
+public interface IDEMPendingRequests {
+
+	// Keeps the first request stored for a unique id
+	void put(REFITRequest request);
+
+	REFITRequest get(REFITUniqueID uid);
+
+	boolean containsKey(REFITUniqueID uid);
+
+	// Removes not only this particular request but all requests of the client that are older
+	void remove(REFITUniqueID uid);
+
+	void removeExecuted(IDEMClientTable clients);
+
+	int size();
+
+	// Summed cost of the stored requests
+	double cost();
+
+	void clear();
+
+	// Marks all requests with a timestamp not after the deadline for forwarding and visits them
+	void forwardExpired(long deadline, Consumer<REFITRequest> action);
+}
@@ -0,0 +1,60 @@
+package refit.agreement.idem.execution;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import refit.application.REFITApplicationServer;
+import refit.application.REFITResult;
+import refit.message.REFITUniqueID;
+
+// Executes identical reads only once as long as no write to the accessed state happened in between
+public class IDEMReadCoalescer {
+
+	private final REFITApplicationServer app;
+
+	private final HashMap<ByteBuffer, REFITResult> reads;
+	private final HashMap<Object, ArrayList<ByteBuffer>> readsPerKey;
+
+
+	public IDEMReadCoalescer(REFITApplicationServer app) {
+		this.app = app;
+		this.reads = new HashMap<>();
+		this.readsPerKey = new HashMap<>();
+	}
+
+	public REFITResult processRequest(REFITUniqueID uid, long agreementSeqNr, ByteBuffer payload) {
+		boolean isReadOnly = app.checkReadOnly(payload);
+		Object key = app.getStateKey(payload);
+		if (isReadOnly && key != null) {
+			REFITResult result = reads.get(payload);
+			if (result == null) {
+				// The application may consume the payload, which is used as key
+				result = app.processRequest(uid, agreementSeqNr, payload.duplicate());
+				reads.put(payload, result);
+				readsPerKey.computeIfAbsent(key, k -> new ArrayList<>()).add(payload);
+			}
+			// Every reply needs its own view of the result buffer
+			return new REFITResult(result.getReply().duplicate());
+		}
+
+		REFITResult result = app.processRequest(uid, agreementSeqNr, payload);
+		if (!isReadOnly) {
+			if (key == null) {
+				clear();
+			} else {
+				ArrayList<ByteBuffer> invalidated = readsPerKey.remove(key);
+				if (invalidated != null) {
+					for (ByteBuffer read : invalidated) reads.remove(read);
+				}
+			}
+		}
+		return result;
+	}
+
+	public void clear() {
+		if (reads.isEmpty()) return;
+		reads.clear();
+		readsPerKey.clear();
+	}
+}
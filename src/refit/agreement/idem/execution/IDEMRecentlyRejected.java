@@ -1,40 +1,42 @@
 package refit.agreement.idem.execution;
 
-import java.util.HashMap;
-
 import refit.config.REFITConfig;
 import refit.message.REFITRequest;
 import refit.message.REFITUniqueID;
+import refit.util.REFITIntIntMap;
 
+// Ring of the latest rejected requests, indexed by client. Adding a request does not allocate
+// as long as the number of clients does not grow.
 public class IDEMRecentlyRejected {
-    
-    	private final HashMap<REFITUniqueID, REFITRequest>[] rejectsPerClient;
-        private final REFITRequest[] recentlyRejected;
-        private int position;
-
-        public IDEMRecentlyRejected() {
-            this.rejectsPerClient = new HashMap[REFITConfig.TOTAL_NR_OF_CLIENTS];
-            for (int i = 0; i < rejectsPerClient.length; i++) {
-                this.rejectsPerClient[i] = new HashMap<REFITUniqueID, REFITRequest>();
-            }
-            this.recentlyRejected = new REFITRequest[REFITConfig.REJECT_THRESHOLD * 10];
-            this.position = 0;
-        }
-
-        public void add(REFITRequest r) {
-            if (recentlyRejected[position] != null) {
-                REFITRequest old = recentlyRejected[position];
-                rejectsPerClient[old.uid.nodeID].remove(old.uid);
-            }
-            recentlyRejected[position] = r;
-            rejectsPerClient[r.uid.nodeID].put(r.uid, r);
-            position++;
-            if (position == recentlyRejected.length) position = 0;
-        }
-
-        public REFITRequest get(REFITUniqueID uid) {
-            return rejectsPerClient[uid.nodeID].get(uid);
-        }
-
 
+	private final REFITIntIntMap positions;
+	private final REFITRequest[] recentlyRejected;
+	private int position;
+
+	public IDEMRecentlyRejected() {
+		this.positions = new REFITIntIntMap(-1);
+		this.recentlyRejected = new REFITRequest[REFITConfig.REJECT_THRESHOLD * 10];
+		this.position = 0;
+	}
+
+	public void add(REFITRequest r) {
+		REFITRequest old = recentlyRejected[position];
+		if (old != null && positions.get(old.uid.nodeID) == position) positions.remove(old.uid.nodeID);
+
+		// Supersedes a previously rejected request of the same client
+		int previous = positions.get(r.uid.nodeID);
+		if (previous >= 0) recentlyRejected[previous] = null;
+
+		recentlyRejected[position] = r;
+		positions.put(r.uid.nodeID, position);
+		position++;
+		if (position == recentlyRejected.length) position = 0;
+	}
+
+	public REFITRequest get(REFITUniqueID uid) {
+		int i = positions.get(uid.nodeID);
+		if (i < 0) return null;
+		REFITRequest r = recentlyRejected[i];
+		return (r.uid.seqNr == uid.seqNr) ? r : null;
+	}
 }
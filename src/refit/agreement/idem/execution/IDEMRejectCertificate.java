@@ -1,5 +1,7 @@
 package refit.agreement.idem.execution;
 
+import java.util.Arrays;
+
 import refit.agreement.idem.IDEMMessage.IDEMReject;
 import refit.config.REFITConfig;
 import refit.message.REFITUniqueID;
@@ -14,11 +16,13 @@ public class IDEMRejectCertificate {
 
     private REFITUniqueID uid;
     private boolean[] rejects;
+    private int[] retryAfter;
     private RejectStatus rejected;
     private int threshold;
 
     public IDEMRejectCertificate(int threshold) {
         this.rejects = new boolean[REFITConfig.TOTAL_NR_OF_REPLICAS];
+        this.retryAfter = new int[REFITConfig.TOTAL_NR_OF_REPLICAS];
         this.rejected = RejectStatus.UNKNOWN;
         this.threshold = threshold;
     }
@@ -35,6 +39,7 @@ public class IDEMRejectCertificate {
     public void reject(IDEMReject reject) {
         if (!this.uid.equals(reject.uid) || rejects[reject.from] == true) return;
         rejects[reject.from] = true;
+        retryAfter[reject.from] = reject.retryAfter;
         int count = 0;
         for (boolean r : rejects) {
             if (r) count++;
@@ -46,6 +51,19 @@ public class IDEMRejectCertificate {
         }
     }
 
+    // The (f+1)-th largest retry hint of the rejecting replicas, thus at least one correct replica
+    // suggested to wait at least as long and faulty replicas cannot inflate the hint
+    public int retryAfter() {
+        int count = 0;
+        int[] hints = new int[rejects.length];
+        for (int i = 0; i < rejects.length; i++) {
+            if (rejects[i]) hints[count++] = retryAfter[i];
+        }
+        if (count == 0) return 0;
+        Arrays.sort(hints, 0, count);
+        return hints[Math.max(0, count - 1 - REFITConfig.FAULTS_TO_TOLERATE)];
+    }
+
     public boolean fullyRejected() {
         return rejected == RejectStatus.FULLY_REJECTED;
     }
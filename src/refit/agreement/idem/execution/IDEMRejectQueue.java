@@ -1,114 +1,186 @@
 package refit.agreement.idem.execution;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
-import refit.agreement.idem.IDEMMessage.IDEMReject;
 import refit.config.REFITConfig;
+import refit.message.REFITMessageTemplate;
 import refit.message.REFITRequest;
 import refit.message.REFITUniqueID;
 import refit.stage.REFITReplicaContext;
+import refit.util.REFITIntIntMap;
 import refit.util.REFITLogger;
 
+// Requests waiting for a free pending slot until their grace period ends. Entries are kept in a hashed
+// timing wheel with one slot per tick of the expiry time. Nodes are pooled in arrays and linked within
+// their slot in insertion order. As all entries share the same grace period, the slots up to the cursor
+// hold the oldest entries and only expired slots are visited during a cleanup.
 public class IDEMRejectQueue {
 
-    private static class QueueElement {
-        public REFITRequest request;
-        public long finalRejectTime = Long.MAX_VALUE;
-        public boolean skip;
-
-        public void set(REFITRequest request) {
-            this.request = request;
-            this.finalRejectTime = System.nanoTime() + REFITConfig.REJECT_GRACE;
-            this.skip = false;
-        }
-
-        public void clear() {
-            this.request = null;
-            this.finalRejectTime = Long.MAX_VALUE;
-            this.skip = false;
-        }
-    }
-
-    private final REFITReplicaContext replica;
-    public IDEMRecentlyRejected recentlyRejected;
-
-    private QueueElement[] queue;
-    public int head;
-    public int tail;
-
-    private final HashMap<REFITUniqueID, Integer> indexMap;
-
-    public IDEMRejectQueue(REFITReplicaContext replica) {
-        this.queue = new QueueElement[REFITConfig.TOTAL_NR_OF_CLIENTS];
-        for (int i=0; i < queue.length; i++) {
-            queue[i] = new QueueElement();
-        }
-        this.head = 0;
-        this.tail = 0;
-        this.replica = replica;
-        this.recentlyRejected = new IDEMRecentlyRejected();
-        this.indexMap = new HashMap<>();
-    }
-
-    public void add(REFITRequest request) {
-        cleanup();
-        if (queue[tail].request != null) {
-            // Forward head as we overwrite current head
-            head = (head+1 == queue.length ? 0 : head+1);
-            reject(queue[tail].request);
-            indexMap.remove(queue[tail].request.uid);
-        }
-        queue[tail].set(request);
-        indexMap.put(request.uid, tail);
-        tail = (tail+1 == queue.length ? 0 : tail+1);
-    }
-
-    public REFITRequest get() {
-        cleanup();
-        // Potentially skip removed entries
-        while (queue[head].skip) {
-            head = (head+1 == queue.length ? 0 : head+1);
-        }
-        REFITRequest request = queue[head].request;
-        if (request != null) {
-            indexMap.remove(request.uid);
-            queue[head].clear();
-            head = (head+1 == queue.length ? 0 : head+1);
-        }
-        return request;
-    }
-
-    public void remove(REFITUniqueID uid) {
-        Integer index = indexMap.get(uid);
-        if (index == null) return;
-        indexMap.remove(uid);
-        queue[index].skip = true;
-    }
-
-    public void cleanup() {
-        long now = System.nanoTime();
-        int i = head;
-        while (i != tail) {
-            if(queue[i].finalRejectTime < now) {
-                reject(queue[i].request);
-                indexMap.remove(queue[i].request.uid);
-                queue[i].clear();
-                head = (head+1 == queue.length ? 0 : head+1);
-            } else if (!queue[i].skip) {
-                break;
-            }
-            i = (i+1 == queue.length ? 0 : i+1);
-        }
-    }
-
-    private void reject(REFITRequest r) {
-        this.recentlyRejected.add(r);
-        if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Finally rejecting request " + r.uid);
-
-        IDEMReject reject = new IDEMReject(r.uid, replica.id);
-        reject.serializeMessage();
-        reject.markVerified();
-        replica.sendMessageToClient(reject, r.uid.nodeID);
-    }
-
-}
\ No newline at end of file
+	private static final int NONE = -1;
+	// Resolution of the wheel in relation to the grace period
+	private static final int TICKS_PER_GRACE = 64;
+
+	private final REFITReplicaContext replica;
+	private final REFITMessageTemplate rejectTemplate;
+	public IDEMRecentlyRejected recentlyRejected;
+
+	private final long tickLength;
+	private final int[] slotHeads;
+	private final int[] slotTails;
+	private final int slotMask;
+	// Oldest tick which may have entries and tick of the latest entry
+	private long cursorTick;
+	private long lastTick;
+
+	// Node pool
+	private final REFITRequest[] requests;
+	private final long[] finalRejectTimes;
+	private final int[] next;
+	private final int[] prev;
+	// Links the nodes of a client
+	private final int[] clientNext;
+	private final int[] clientPrev;
+	private int freeList;
+	private int size;
+
+	// Client -> node of the latest queued request of the client, a client may have several
+	private final REFITIntIntMap index;
+
+
+	public IDEMRejectQueue(REFITReplicaContext replica, REFITMessageTemplate rejectTemplate) {
+		this.replica = replica;
+		this.rejectTemplate = rejectTemplate;
+		this.recentlyRejected = new IDEMRecentlyRejected();
+
+		this.tickLength = Math.max(1, REFITConfig.REJECT_GRACE / TICKS_PER_GRACE);
+		// Entries never span more than a grace period plus the current tick
+		int slots = Integer.highestOneBit((int) (REFITConfig.REJECT_GRACE / tickLength) + 2) << 1;
+		this.slotHeads = new int[slots];
+		this.slotTails = new int[slots];
+		Arrays.fill(slotHeads, NONE);
+		Arrays.fill(slotTails, NONE);
+		this.slotMask = slots - 1;
+
+		int capacity = REFITConfig.TOTAL_NR_OF_CLIENTS;
+		this.requests = new REFITRequest[capacity];
+		this.finalRejectTimes = new long[capacity];
+		this.next = new int[capacity];
+		this.prev = new int[capacity];
+		this.clientNext = new int[capacity];
+		this.clientPrev = new int[capacity];
+		for (int i = 0; i < capacity; i++) next[i] = (i + 1 < capacity) ? i + 1 : NONE;
+		this.freeList = 0;
+		this.size = 0;
+		this.index = new REFITIntIntMap(NONE, capacity);
+	}
+
+	public void add(REFITRequest request) {
+		long now = System.nanoTime();
+		cleanup(now);
+		if (freeList == NONE) {
+			// Make room by finally rejecting the oldest request
+			int oldest = oldest();
+			reject(requests[oldest]);
+			release(oldest);
+		}
+
+		int node = freeList;
+		freeList = next[node];
+		requests[node] = request;
+		finalRejectTimes[node] = now + REFITConfig.REJECT_GRACE;
+		long tick = Math.floorDiv(finalRejectTimes[node], tickLength);
+		if (size++ == 0) cursorTick = tick;
+		lastTick = tick;
+
+		int slot = (int) tick & slotMask;
+		next[node] = NONE;
+		prev[node] = slotTails[slot];
+		if (slotTails[slot] == NONE) {
+			slotHeads[slot] = node;
+		} else {
+			next[slotTails[slot]] = node;
+		}
+		slotTails[slot] = node;
+
+		int latest = index.get(request.uid.nodeID);
+		clientNext[node] = latest;
+		clientPrev[node] = NONE;
+		if (latest != NONE) clientPrev[latest] = node;
+		index.put(request.uid.nodeID, node);
+	}
+
+	public REFITRequest get() {
+		cleanup(System.nanoTime());
+		if (size == 0) return null;
+		int oldest = oldest();
+		REFITRequest request = requests[oldest];
+		release(oldest);
+		return request;
+	}
+
+	public void remove(REFITUniqueID uid) {
+		for (int node = index.get(uid.nodeID); node != NONE; node = clientNext[node]) {
+			if (requests[node].uid.equals(uid)) {
+				release(node);
+				return;
+			}
+		}
+	}
+
+	public void cleanup() {
+		cleanup(System.nanoTime());
+	}
+
+	private void cleanup(long now) {
+		while (size > 0) {
+			int slot = (int) cursorTick & slotMask;
+			int node = slotHeads[slot];
+			while (node != NONE && finalRejectTimes[node] < now) {
+				reject(requests[node]);
+				release(node);
+				node = slotHeads[slot];
+			}
+			// Stop at the first entry which has not expired yet
+			if (node != NONE || cursorTick >= lastTick) return;
+			cursorTick++;
+		}
+	}
+
+	// Must only be called if the queue is not empty
+	private int oldest() {
+		while (slotHeads[(int) cursorTick & slotMask] == NONE) cursorTick++;
+		return slotHeads[(int) cursorTick & slotMask];
+	}
+
+	private void release(int node) {
+		int slot = (int) Math.floorDiv(finalRejectTimes[node], tickLength) & slotMask;
+		if (prev[node] == NONE) {
+			slotHeads[slot] = next[node];
+		} else {
+			next[prev[node]] = next[node];
+		}
+		if (next[node] == NONE) {
+			slotTails[slot] = prev[node];
+		} else {
+			prev[next[node]] = prev[node];
+		}
+
+		if (clientPrev[node] == NONE) {
+			index.put(requests[node].uid.nodeID, clientNext[node]);
+		} else {
+			clientNext[clientPrev[node]] = clientNext[node];
+		}
+		if (clientNext[node] != NONE) clientPrev[clientNext[node]] = clientPrev[node];
+		requests[node] = null;
+		next[node] = freeList;
+		freeList = node;
+		size--;
+	}
+
+	private void reject(REFITRequest r) {
+		this.recentlyRejected.add(r);
+		if (REFITLogger.LOG_EXECUTION) REFITLogger.logExecution(this, "Finally rejecting request " + r.uid);
+		replica.sendMessageToClient(rejectTemplate, r.uid.seqNr, r.uid.nodeID);
+	}
+
+}
@@ -0,0 +1,86 @@
+package refit.agreement.idem.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+
+import refit.agreement.idem.execution.IDEMCommitRecorder.IDEMRecord;
+import refit.application.REFITApplicationServer;
+import refit.config.REFITConfig;
+import refit.util.REFITOperationProfiler;
+
+// Replays a recorded commit stream against the configured application server without agreement
+// or network to measure the execution path in isolation
+public class IDEMReplay {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: java " + IDEMReplay.class.getSimpleName() + " <record file> [<repetitions>]");
+			System.exit(1);
+		}
+
+		List<IDEMRecord> records = IDEMCommitRecorder.read(new File(args[0]));
+		int repetitions = (args.length == 2) ? Integer.parseInt(args[1]) : 1;
+		System.out.println("Loaded " + records.size() + " records from " + args[0]);
+
+		for (int i = 0; i < repetitions; i++) {
+			replay(records);
+		}
+	}
+
+	private static void replay(List<IDEMRecord> records) {
+		REFITApplicationServer app;
+		try {
+			app = REFITConfig.APPLICATION_SERVER.getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new InternalError(e);
+		}
+		app.init();
+
+		// Service times in microseconds
+		Histogram requests = new Histogram(60L * 1000 * 1000, 2);
+		Histogram checkpoints = new Histogram(60L * 1000 * 1000, 2);
+		REFITOperationProfiler profiler = new REFITOperationProfiler("REPLAY", 0);
+		long next = records.isEmpty() ? 0 : records.get(0).sqn;
+		int executed = 0;
+		int gaps = 0;
+
+		long start = System.nanoTime();
+		for (IDEMRecord record : records) {
+			// The recording replica applied a checkpoint, the replayed state diverges from here on
+			if (record.sqn != next) gaps++;
+
+			if (record.payload != null) {
+				long t = System.nanoTime();
+				app.processRequest(record.uid, record.sqn, record.payload.duplicate());
+				long serviceTime = System.nanoTime() - t;
+				requests.recordValue(serviceTime / 1000);
+				profiler.record(app.getOperationType(record.payload.duplicate()), serviceTime);
+				executed++;
+			}
+
+			next = record.sqn + 1;
+			if (next % REFITConfig.CHECKPOINT_INTERVAL == 0) {
+				long t = System.nanoTime();
+				app.createCheckpoint();
+				checkpoints.recordValue((System.nanoTime() - t) / 1000);
+			}
+		}
+		long duration = System.nanoTime() - start;
+
+		System.out.printf("Replayed %d sqns (%d executed, %d gaps) in %.3f s: %.1f ops/s%n", records.size(), executed, gaps,
+				duration / 1e9, executed / (duration / 1e9));
+		print("request", requests);
+		print("checkpoint", checkpoints);
+		System.out.print(profiler.summary());
+	}
+
+	static void print(String name, Histogram histogram) {
+		if (histogram.getTotalCount() == 0) return;
+		System.out.printf("%-12s count: %d, mean(us): %.1f, p50: %d, p90: %d, p99: %d, p99.9: %d, max: %d%n", name,
+				histogram.getTotalCount(), histogram.getMean(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+	}
+}
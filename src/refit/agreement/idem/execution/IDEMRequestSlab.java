@@ -0,0 +1,238 @@
+package refit.agreement.idem.execution;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import refit.message.REFITRequest;
+import refit.message.REFITUniqueID;
+import refit.util.REFITIntIntMap;
+
+// Stores requests in their serialized form in fixed-size slots of an off-heap slab, which keeps
+// the number of live heap objects and the memory footprint bounded under overload. Requests are
+// only decoded when they are accessed. Requests that do not fit into a slot or arrive while all
+// slots are in use are kept on the heap instead.
+public class IDEMRequestSlab implements IDEMPendingRequests {
+
+	private static final int NONE = -1;
+
+	private final ByteBuffer slab;
+	private final int slotSize;
+
+	// Slot metadata
+	private final long[] seqNrs;
+	private final long[] timestamps;
+	private final double[] costs;
+	private final int[] lengths;
+	private final boolean[] forwarded;
+	// Links the slots of a client in ascending sequence number order, or the free slots
+	private final int[] next;
+
+	// Clients get a fixed index on their first request, their entries are kept so that the
+	// clients can be iterated without allocating while their lists change
+	private final REFITIntIntMap indices;
+	private int[] clientIds;
+	// First slot of each client
+	private int[] heads;
+	private int clientCount;
+	private int free;
+	private int used;
+	private double cost;
+
+	private final IDEMHeapPendingRequests overflow;
+
+
+	public IDEMRequestSlab(int slots, int slotSize) {
+		this.slab = ByteBuffer.allocateDirect(slots * slotSize);
+		this.slotSize = slotSize;
+		this.seqNrs = new long[slots];
+		this.timestamps = new long[slots];
+		this.costs = new double[slots];
+		this.lengths = new int[slots];
+		this.forwarded = new boolean[slots];
+		this.next = new int[slots];
+		for (int i = 0; i < slots; i++) {
+			next[i] = (i + 1 < slots) ? i + 1 : NONE;
+		}
+		this.indices = new REFITIntIntMap(NONE);
+		this.clientIds = new int[8];
+		this.heads = new int[8];
+		this.clientCount = 0;
+		this.free = (slots > 0) ? 0 : NONE;
+		this.used = 0;
+		this.cost = 0;
+		this.overflow = new IDEMHeapPendingRequests();
+	}
+
+	private int index(int client) {
+		int c = indices.get(client);
+		if (c != NONE) return c;
+		if (clientCount == clientIds.length) {
+			clientIds = Arrays.copyOf(clientIds, clientCount * 2);
+			heads = Arrays.copyOf(heads, clientCount * 2);
+		}
+		c = clientCount++;
+		clientIds[c] = client;
+		heads[c] = NONE;
+		indices.put(client, c);
+		return c;
+	}
+
+	private int find(REFITUniqueID uid) {
+		int c = indices.get(uid.nodeID);
+		if (c == NONE) return NONE;
+		for (int s = heads[c]; s != NONE && seqNrs[s] <= uid.seqNr; s = next[s]) {
+			if (seqNrs[s] == uid.seqNr) return s;
+		}
+		return NONE;
+	}
+
+	private REFITRequest decode(int s) {
+		ByteBuffer source = slab.duplicate();
+		source.limit(s * slotSize + lengths[s]);
+		source.position(s * slotSize);
+		ByteBuffer buffer = ByteBuffer.allocate(lengths[s]);
+		buffer.put(source);
+		buffer.flip();
+
+		REFITRequest request = new REFITRequest(buffer);
+		// Only verified requests are stored
+		request.markVerified();
+		request.timestamp = timestamps[s];
+		request.cost = costs[s];
+		return request;
+	}
+
+	private void store(int s, ByteBuffer bytes) {
+		ByteBuffer destination = slab.duplicate();
+		destination.position(s * slotSize);
+		lengths[s] = bytes.remaining();
+		destination.put(bytes);
+	}
+
+	private void release(int s) {
+		next[s] = free;
+		free = s;
+		used--;
+		cost -= costs[s];
+	}
+
+	@Override
+	public void put(REFITRequest request) {
+		REFITUniqueID uid = request.uid;
+		if (find(uid) != NONE || overflow.containsKey(uid)) return;
+		ByteBuffer bytes = request.getBuffer();
+		if (free == NONE || bytes.remaining() > slotSize) {
+			overflow.put(request);
+			return;
+		}
+
+		// Copy request into a free slot
+		int s = free;
+		free = next[s];
+		used++;
+		store(s, bytes);
+		forwarded[s] = request.isForward;
+		seqNrs[s] = uid.seqNr;
+		timestamps[s] = request.timestamp;
+		costs[s] = request.cost;
+		cost += request.cost;
+
+		// Link slot into the list of the client
+		int c = index(uid.nodeID);
+		int previous = NONE;
+		int current = heads[c];
+		while (current != NONE && seqNrs[current] < uid.seqNr) {
+			previous = current;
+			current = next[current];
+		}
+		next[s] = current;
+		if (previous == NONE) {
+			heads[c] = s;
+		} else {
+			next[previous] = s;
+		}
+	}
+
+	@Override
+	public REFITRequest get(REFITUniqueID uid) {
+		int s = find(uid);
+		return (s != NONE) ? decode(s) : overflow.get(uid);
+	}
+
+	@Override
+	public boolean containsKey(REFITUniqueID uid) {
+		return find(uid) != NONE || overflow.containsKey(uid);
+	}
+
+	@Override
+	public void remove(REFITUniqueID uid) {
+		removeOlder(uid.nodeID, uid.seqNr + 1);
+		overflow.remove(uid);
+	}
+
+	private void removeOlder(int client, long seqNr) {
+		int c = indices.get(client);
+		if (c != NONE) removeOlderAt(c, seqNr);
+	}
+
+	private void removeOlderAt(int c, long seqNr) {
+		int head = heads[c];
+		while (head != NONE && seqNrs[head] < seqNr) {
+			int s = head;
+			head = next[s];
+			release(s);
+		}
+		heads[c] = head;
+	}
+
+	@Override
+	public void removeExecuted(IDEMClientTable clients) {
+		for (int c = 0; c < clientCount; c++) {
+			if (heads[c] != NONE) removeOlderAt(c, clients.executed(clientIds[c]));
+		}
+		overflow.removeExecuted(clients);
+	}
+
+	@Override
+	public int size() {
+		return used + overflow.size();
+	}
+
+	@Override
+	public double cost() {
+		// Avoid accumulating rounding errors
+		if (used == 0) cost = 0;
+		return cost + overflow.cost();
+	}
+
+	@Override
+	public void clear() {
+		for (int c = 0; c < clientCount; c++) {
+			removeOlderAt(c, Long.MAX_VALUE);
+		}
+		overflow.clear();
+	}
+
+	@Override
+	public void forwardExpired(long deadline, Consumer<REFITRequest> action) {
+		for (int c = 0; c < clientCount; c++) {
+			for (int s = heads[c]; s != NONE; s = next[s]) {
+				if (timestamps[s] > deadline) continue;
+				REFITRequest request = decode(s);
+				if (!forwarded[s]) {
+					// Store the forward encoding, later rounds can send the decoded request as is
+					request.markForward();
+					request.serializeMessage(true);
+					ByteBuffer bytes = request.getBuffer();
+					if (bytes.remaining() <= slotSize) {
+						store(s, bytes);
+						forwarded[s] = true;
+					}
+				}
+				action.accept(request);
+			}
+		}
+		overflow.forwardExpired(deadline, action);
+	}
+}
@@ -0,0 +1,96 @@
+package refit.agreement.idem.execution;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import refit.application.REFITResult;
+import refit.application.REFITSnapshotApplicationServer;
+import refit.message.REFITRequest;
+
+// Executes read-only requests on a pool of reader threads against a snapshot of the application
+// state, allowing the execution stage to continue with subsequent requests in the meantime
+public class IDEMSnapshotReader {
+
+	public final class IDEMSnapshotRead extends FutureTask<REFITResult> {
+		public final REFITRequest request;
+		public final long sqn;
+		public final int view;
+		// Whether the read was ordered or bypassed the agreement
+		public final boolean ordered;
+
+		private IDEMSnapshotRead(REFITRequest request, long sqn, int view, boolean ordered) {
+			super(() -> app.processSnapshotRead(request.uid, sqn, request.getPayload()));
+			this.request = request;
+			this.sqn = sqn;
+			this.view = view;
+			this.ordered = ordered;
+		}
+
+		@Override
+		protected void done() {
+			completed.add(this);
+			notifier.run();
+		}
+
+		public REFITResult getResult() {
+			try {
+				return get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException("Snapshot read of " + request.uid + " failed", e);
+			}
+		}
+	}
+
+	private final REFITSnapshotApplicationServer app;
+	private final Runnable notifier;
+	private final ExecutorService readers;
+	private final LinkedBlockingQueue<IDEMSnapshotRead> completed;
+	private int inFlight;
+
+
+	public IDEMSnapshotReader(REFITSnapshotApplicationServer app, int threads, Runnable notifier) {
+		this.app = app;
+		this.notifier = notifier;
+		this.readers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "SNAPSHOT");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.completed = new LinkedBlockingQueue<>();
+		this.inFlight = 0;
+	}
+
+	public boolean supports(REFITRequest request) {
+		return app.supportsSnapshotRead(request.getPayload());
+	}
+
+	public void release(long horizon) {
+		app.releaseSnapshots(horizon);
+	}
+
+	public void submit(REFITRequest request, long sqn, int view, boolean ordered) {
+		inFlight++;
+		readers.execute(new IDEMSnapshotRead(request, sqn, view, ordered));
+	}
+
+	public IDEMSnapshotRead poll() {
+		IDEMSnapshotRead read = completed.poll();
+		if (read != null) inFlight--;
+		return read;
+	}
+
+	// Blocks until a read completes, returns null if no read is in flight
+	public IDEMSnapshotRead take() {
+		if (inFlight == 0) return null;
+		try {
+			IDEMSnapshotRead read = completed.take();
+			inFlight--;
+			return read;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
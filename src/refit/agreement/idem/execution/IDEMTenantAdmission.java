@@ -0,0 +1,100 @@
+package refit.agreement.idem.execution;
+
+import java.util.Arrays;
+
+// Admission of requests by tenant. A tenant covers a range of client ids and has a reserved rate, which
+// is enforced with a token bucket, and a weight. Requests within the reserved rate are always admitted
+// below the hard reject threshold. Under high load, tenants exceeding their weighted share of the
+// remaining capacity are rejected first. Clients not covered by a tenant form a default tenant.
+public class IDEMTenantAdmission {
+
+	// Buckets hold at most this many ms worth of reserved requests
+	private static final long BURST_MS = 100;
+	// Time constant in ms of the decaying rate of requests admitted beyond the reservation
+	private static final double EXCESS_DECAY_MS = 1000;
+	private static final double ACTIVE_EXCESS = 0.5;
+
+	private static final class Tenant {
+		private final double weight;
+		private final double tokensPerMs;
+		private final double burst;
+		private double tokens;
+		private long lastRefill;
+		private double excess;
+		private long lastDecay;
+
+		private Tenant(double weight, int reservedRate) {
+			this.weight = weight;
+			this.tokensPerMs = reservedRate / 1000.0;
+			this.burst = Math.max(1, tokensPerMs * BURST_MS);
+			this.tokens = burst;
+		}
+
+		private boolean takeToken(long now) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMs);
+			lastRefill = now;
+			if (tokensPerMs == 0 || tokens < 1) return false;
+			tokens--;
+			return true;
+		}
+
+		private double excess(long now) {
+			if (now != lastDecay) {
+				excess *= Math.exp(-(now - lastDecay) / EXCESS_DECAY_MS);
+				lastDecay = now;
+			}
+			return excess;
+		}
+	}
+
+	private final Tenant[] tenants;
+	private final int[] tenantOfClient;
+	private final double highLoad;
+
+
+	// Each tenant is specified as { first client id, last client id, weight, reserved requests per second }
+	public IDEMTenantAdmission(int[][] specs, double highLoad) {
+		this.tenants = new Tenant[specs.length + 1];
+		int maxClient = 0;
+		for (int i = 0; i < specs.length; i++) {
+			if (specs[i].length != 4) throw new IllegalArgumentException("Invalid tenant " + Arrays.toString(specs[i]));
+			tenants[i] = new Tenant(specs[i][2], specs[i][3]);
+			maxClient = Math.max(maxClient, specs[i][1]);
+		}
+		int defaultTenant = specs.length;
+		tenants[defaultTenant] = new Tenant(1, 0);
+
+		this.tenantOfClient = new int[maxClient + 1];
+		Arrays.fill(tenantOfClient, defaultTenant);
+		for (int i = 0; i < specs.length; i++) {
+			for (int client = specs[i][0]; client <= specs[i][1]; client++) tenantOfClient[client] = i;
+		}
+		this.highLoad = highLoad;
+	}
+
+	private Tenant tenantOf(int client) {
+		return tenants[(client < tenantOfClient.length) ? tenantOfClient[client] : tenants.length - 1];
+	}
+
+	// Load is the fill level of the pending requests, at 1 all requests are rejected anyway
+	public boolean admit(int client, double load, long now) {
+		Tenant tenant = tenantOf(client);
+		if (tenant.takeToken(now)) return true;
+
+		double excess = tenant.excess(now);
+		if (load >= highLoad) {
+			// Reject if the tenant already got more than its weighted share of the capacity beyond the
+			// reservations, only tenants which currently compete for that capacity are considered
+			double total = excess;
+			double weights = tenant.weight;
+			for (Tenant t : tenants) {
+				if (t == tenant || t.excess(now) < ACTIVE_EXCESS) continue;
+				total += t.excess;
+				weights += t.weight;
+			}
+			if (total > 0 && excess / total > tenant.weight / weights) return false;
+		}
+		tenant.excess = excess + 1;
+		return true;
+	}
+}
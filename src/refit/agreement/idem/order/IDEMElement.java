@@ -6,11 +6,14 @@ import refit.config.REFITConfig;
 import refit.message.REFITUniqueID;
 
 public class IDEMElement {
-	public static final int SIZE = Short.BYTES + Long.BYTES + Long.BYTES;
+	public static final int SIZE = Short.BYTES + Long.BYTES + Integer.BYTES + Byte.BYTES;
 
 	public REFITUniqueID id;
 	public int view;
+	public boolean skip;
 	protected transient boolean[] acks;
+	// Local time in ms after which the proposer skips the request
+	protected transient long expiry;
 
 	public IDEMElement(REFITUniqueID id) {
 		this(id, -1);
@@ -19,13 +22,17 @@ public class IDEMElement {
 	public IDEMElement(REFITUniqueID id, int view) {
 		this.id = id;
 		this.view = view;
+		this.skip = false;
 		this.acks = new boolean[REFITConfig.TOTAL_NR_OF_REPLICAS];
+		this.expiry = Long.MAX_VALUE;
 	}
 
 	public IDEMElement(ByteBuffer buffer) {
 		this.id = new REFITUniqueID(buffer.getShort(), buffer.getLong());
 		this.view = buffer.getInt();
+		this.skip = (buffer.get() == 1);
 		this.acks = new boolean[REFITConfig.TOTAL_NR_OF_REPLICAS];
+		this.expiry = Long.MAX_VALUE;
 	}
 
 	public void ack(short replica) {
@@ -44,10 +51,11 @@ public class IDEMElement {
 		buffer.putShort(id.nodeID);
 		buffer.putLong(id.seqNr);
 		buffer.putInt(view);
+		buffer.put((byte) (skip ? 1 : 0));
 	}
 
 	@Override
 	public String toString() {
-		return "E[" + id + "|" + view + "]";
+		return "E[" + id + "|" + view + (skip ? "|skip]" : "]");
 	}
 }
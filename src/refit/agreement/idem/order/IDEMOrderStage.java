@@ -15,6 +15,8 @@ import java.util.List;
 import refit.agreement.idem.IDEMRequestSet;
 import refit.agreement.idem.IDEMStage;
 import refit.agreement.idem.execution.IDEMCheckpoint;
+import refit.agreement.idem.execution.IDEMClientTable;
+import refit.agreement.idem.execution.IDEMLoadGossip;
 import refit.agreement.idem.order.IDEMViewChange.IDEMViewChanges;
 import refit.config.REFITConfig;
 import refit.message.REFITEvent;
@@ -38,7 +40,9 @@ public class IDEMOrderStage extends IDEMStage {
 	private long sqn;
 	private int view;
 	private final IDEMRequestSet<IDEMElement> requests;
-	private long[] proposed;
+	private IDEMClientTable proposed;
+	// Latest load reported by the local execution stage, passed on to the other replicas with commits
+	private short load;
 
 	private final IDEMViewChanges viewchanges;
 	private IDEMViewChange merged;
@@ -59,7 +63,8 @@ public class IDEMOrderStage extends IDEMStage {
 		this.sqn = 0;
 		this.view = 0;
 		this.requests = new IDEMRequestSet<IDEMElement>();
-		this.proposed = new long[REFITConfig.TOTAL_NR_OF_CLIENTS];
+		this.proposed = new IDEMClientTable();
+		this.load = IDEMLoadGossip.UNKNOWN;
 		this.viewchanges = new IDEMViewChanges();
 		this.merged = null;
 		this.checkpoint = initialCheckpoint;
@@ -99,12 +104,15 @@ public class IDEMOrderStage extends IDEMStage {
 	}
 
 	private void handleRequire(IDEMRequire r) {
+		if (r.from == replica.id) load = r.load;
 		if (mode == Mode.IDLE) return;
-		if (r.uid.seqNr < proposed[r.uid.nodeID]) return;
+		if (r.uid.seqNr < proposed.executed(r.uid.nodeID)) return;
 
 		IDEMElement el = requests.get(r.uid);
 		if (el == null) {
 			el = new IDEMElement(r.uid);
+			// The first require best approximates when the client sent the request
+			if (r.deadline > 0) el.expiry = System.currentTimeMillis() + r.deadline;
 			requests.put(r.uid, el);
 		}
 		el.ack(r.from);
@@ -142,20 +150,22 @@ public class IDEMOrderStage extends IDEMStage {
 	}
 
 	private void propose(IDEMElement el, long n) {
-		IDEMPropose p = new IDEMPropose(el.id, n, view, replica.id);
+		// Only the proposer decides whether a request expired, so all replicas agree on skipping it
+		if (el.expiry != Long.MAX_VALUE && System.currentTimeMillis() > el.expiry) el.skip = true;
+		IDEMPropose p = new IDEMPropose(el.id, n, view, el.skip, replica.id);
 		if (REFITLogger.LOG_ORDER) REFITLogger.logOrder(this, "Proposing " + p.uid + " for request " + el.id);
 		tellAll(p);
 		this.sqn = n + 1;
 
 		// Update proposed and empty request set
-		proposed[el.id.nodeID] = Math.max(proposed[el.id.nodeID], el.id.seqNr + 1);
+		proposed.setExecuted(el.id.nodeID, Math.max(proposed.executed(el.id.nodeID), el.id.seqNr + 1));
 		requests.remove(el.id);
 	}
 
 	private void completeViewChange() {
 		// Update own state and re-propose requests
 		this.sqn = checkpoint.sqn;
-		this.proposed = checkpoint.executed;
+		this.proposed = checkpoint.clients.copy();
 		for (long n = checkpoint.sqn; n < merged.commits.end; n++) {
 			IDEMElement el = merged.commits.get(n);
 			if (el == null) break;
@@ -185,12 +195,12 @@ public class IDEMOrderStage extends IDEMStage {
 		}
 		// Store proposal and forward to executor
 		proposals.add(p);
-		IDEMCommit c = new IDEMCommit(p, replica.id);
+		IDEMCommit c = new IDEMCommit(p, load, replica.id);
 		if (!REFITLogger.LOG_ORDER) REFITLogger.logOrder(this, "Sending commit " + c.uid);
 		tellAll(c, commitSender);
 		// Count propose as commit from the leader
 		if (p.from != replica.id) {
-			IDEMCommit cl = new IDEMCommit(p, p.from);
+			IDEMCommit cl = new IDEMCommit(p, IDEMLoadGossip.UNKNOWN, p.from);
 			commitSender.tell(cl);
 		}
 	}
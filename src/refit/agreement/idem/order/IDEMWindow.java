@@ -83,6 +83,7 @@ public class IDEMWindow {
 		if (values[idx] == null || value.view > values[idx].view) {
 			// No entry or from older view
 			values[idx] = new IDEMElement(value.uid, value.view);
+			values[idx].skip = value.skip;
 			values[idx].ack(value.from);
 		} else if (value.view < values[idx].view) {
 			return;
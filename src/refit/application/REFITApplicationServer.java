@@ -12,6 +12,23 @@ public interface REFITApplicationServer {
 
 	boolean checkReadOnly(ByteBuffer payload);
 
+	// Identifies the state accessed by a request, e.g. the key of a record. Requests which access
+	// different state must return non-equal keys. Returns null if the accessed state is unknown.
+	default Object getStateKey(ByteBuffer payload) {
+		return null;
+	}
+
+	// Classifies a request for profiling, e.g. by the kind of operation. Returns null if unknown.
+	default Object getOperationType(ByteBuffer payload) {
+		return null;
+	}
+
+	// Estimates the execution cost of a request relative to a simple operation which costs 1.
+	// Returns a negative value if unknown, the replica then learns the cost per operation type.
+	default double estimateCost(ByteBuffer payload) {
+		return -1;
+	}
+
 	REFITCheckpointObject[] createCheckpoint();
 
 	void applyCheckpoint(REFITCheckpointObject[] checkpoint);
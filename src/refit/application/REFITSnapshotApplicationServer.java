@@ -0,0 +1,17 @@
+package refit.application;
+
+import java.nio.ByteBuffer;
+
+import refit.message.REFITUniqueID;
+
+// Applications which can serve reads from snapshots. Snapshot reads may run concurrently to the
+// execution of other requests and must only observe the effects of requests with an agreement
+// sequence number smaller than the given one.
+public interface REFITSnapshotApplicationServer extends REFITApplicationServer {
+	boolean supportsSnapshotRead(ByteBuffer payload);
+
+	REFITResult processSnapshotRead(REFITUniqueID uid, long agreementSeqNr, ByteBuffer payload);
+
+	// No snapshot reads older than the horizon will be issued anymore
+	void releaseSnapshots(long horizon);
+}
@@ -177,7 +177,7 @@ public class REFITYCSBClient extends DB {
 					}
 					// After reject, wait a semi random timeout before trying next request
 					try {
-						int timeout =  (int) ((Math.random() + 1) * (REFITConfig.REJECT_MAX_IDLE/2));
+						int timeout = ((REFITRejectException) e).backoff();
 						Thread.sleep(timeout);
 					} catch (InterruptedException e2) {}
 				} else {
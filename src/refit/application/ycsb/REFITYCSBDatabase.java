@@ -2,7 +2,10 @@ package refit.application.ycsb;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+import refit.config.REFITConfig;
 import site.ycsb.*;
 
 
@@ -14,32 +17,103 @@ public class REFITYCSBDatabase extends DB {
 	static boolean dontCleanup = false;
 
 
+	// ############
+	// # VERSIONS #
+	// ############
+
+	// With snapshot readers, records are never modified in place: each write creates a new version
+	// which links to its predecessor, allowing readers to access the state as of an earlier sequence
+	// number. Otherwise each record only has a single version which is updated in place.
+	private static final boolean VERSIONED = REFITConfig.SNAPSHOT_READERS > 0;
+
+	private static final class REFITYCSBVersion {
+		private final long version;
+		// null marks a deleted record
+		private final Map<String, byte[]> record;
+		private volatile REFITYCSBVersion previous;
+
+		private REFITYCSBVersion(long version, Map<String, byte[]> record, REFITYCSBVersion previous) {
+			this.version = version;
+			this.record = record;
+			this.previous = previous;
+		}
+
+		private Map<String, byte[]> visibleRecord(long snapshot) {
+			REFITYCSBVersion v = this;
+			while (v != null && v.version >= snapshot) v = v.previous;
+			return (v != null) ? v.record : null;
+		}
+	}
+
+
 	// #########
 	// # TABLE #
 	// #########
 
-	private static class REFITYCSBTable extends TreeMap<String, Map<String, ByteIterator>> {
+	private static class REFITYCSBTable extends ConcurrentSkipListMap<String, REFITYCSBVersion> {
+
+		// Keys which have older versions that might be garbage collected
+		private final HashSet<String> dirtyKeys = new HashSet<>();
+
+		public Map<String, byte[]> getRecord(String key, long snapshot) {
+			REFITYCSBVersion head = get(key);
+			return (head != null) ? head.visibleRecord(snapshot) : null;
+		}
+
+		public void putRecord(String key, Map<String, byte[]> record, long version) {
+			if (!VERSIONED) {
+				if (record == null) {
+					remove(key);
+				} else {
+					put(key, new REFITYCSBVersion(version, record, null));
+				}
+				return;
+			}
+			REFITYCSBVersion head = get(key);
+			put(key, new REFITYCSBVersion(version, record, head));
+			if (head != null) dirtyKeys.add(key);
+		}
+
+		public void collectGarbage(long horizon) {
+			ArrayList<String> keys = new ArrayList<>(dirtyKeys);
+			dirtyKeys.clear();
+			for (String key : keys) {
+				REFITYCSBVersion head = get(key);
+				if (head == null) continue;
+				// Only the version visible at the horizon and newer ones can still be read
+				REFITYCSBVersion v = head;
+				while (v != null && v.version >= horizon) v = v.previous;
+				if (v == null) continue;
+				if (v != head) dirtyKeys.add(key);
+				v.previous = null;
+				if (v == head && v.record == null) remove(key, v);
+			}
+		}
 
 		public void store(REFITData destination) {
 			// Store table size
-			destination.putInt(size());
+			int size = 0;
+			for (REFITYCSBVersion head : values()) {
+				if (head.record != null) size++;
+			}
+			destination.putInt(size);
 
 			// Store records
-			for (Entry<String, Map<String, ByteIterator>> record : entrySet()) {
+			for (Entry<String, REFITYCSBVersion> record : entrySet()) {
+				if (record.getValue().record == null) continue;
 				destination.putString(record.getKey());
-				putRecord(destination, record.getValue());
+				putRawRecord(destination, record.getValue().record);
 			}
 		}
 
-		public void load(REFITData source, boolean copy) {
+		public void load(REFITData source) {
 			// Retrieve table size
 			int size = source.getInt();
 
 			// Retrieve records
 			for (int i = 0; i < size; i++) {
 				String key = source.getString();
-				Map<String, ByteIterator> record = getRecord(source, new HashMap<String, ByteIterator>(), copy);
-				put(key, record);
+				put(key, new REFITYCSBVersion(INITIAL_VERSION, getRawRecord(source), null));
 			}
 		}
 
@@ -50,11 +124,19 @@ public class REFITYCSBDatabase extends DB {
 	// # DATABASE #
 	// ############
 
+	// Version of records that were loaded and not written afterwards
+	private static final long INITIAL_VERSION = -1;
+	// Reads at this snapshot always see the newest version
+	private static final long LATEST = Long.MAX_VALUE;
+
 	private final Map<String, REFITYCSBTable> database;
+	// Version assigned to subsequent writes
+	private long version;
 
 
 	public REFITYCSBDatabase() {
-		this.database = new TreeMap<String, REFITYCSBTable>();
+		this.database = new ConcurrentHashMap<String, REFITYCSBTable>();
+		this.version = INITIAL_VERSION;
 		staticInstance = this;
 	}
 
@@ -85,15 +167,32 @@ public class REFITYCSBDatabase extends DB {
 		database.clear();
 	}
 
+	// Writes must only be issued by a single thread, reads may run concurrently
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	// Drop versions which cannot be read by snapshots at or after the horizon
+	public void collectGarbage(long horizon) {
+		for (REFITYCSBTable table : database.values()) {
+			table.collectGarbage(horizon);
+		}
+	}
+
 	@Override
 	public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
+		return read(table, key, fields, result, LATEST);
+	}
+
+	// Only sees writes with a version smaller than the snapshot
+	public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result, long snapshot) {
 		// Get table
 		if (VERBOSE) System.out.println("[Database - Read] " + table + " " + key + " " + fields + " " + result);
 		REFITYCSBTable t = database.get(table);
 		if (t == null) return Status.NOT_FOUND;
 
 		// Get record
-		Map<String, ByteIterator> record = t.get(key);
+		Map<String, byte[]> record = t.getRecord(key, snapshot);
 		if (record == null) return Status.NOT_FOUND;
 
 		// Retrieve fields
@@ -103,6 +202,10 @@ public class REFITYCSBDatabase extends DB {
 
 	@Override
 	public Status scan(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+		return scan(table, startkey, recordcount, fields, result, LATEST);
+	}
+
+	public Status scan(String table, String startkey, int recordcount, Set<String> fields, Vector<HashMap<String, ByteIterator>> result, long snapshot) {
 		// Check record count
 		if (VERBOSE)
 			System.out.println("[Database - Scan] " + table + " " + startkey + " " + recordcount + " " + fields + " " + result);
@@ -113,11 +216,12 @@ public class REFITYCSBDatabase extends DB {
 		if (t == null) return Status.NOT_FOUND;
 
 		// Check whether the start record exists
-		if (!t.containsKey(startkey)) return Status.ERROR;
+		if (t.getRecord(startkey, snapshot) == null) return Status.ERROR;
 
 		// Retrieve records
-		for (Entry<String, Map<String, ByteIterator>> entry : t.tailMap(startkey).entrySet()) {
-			Map<String, ByteIterator> record = t.get(entry.getKey());
+		for (REFITYCSBVersion head : t.tailMap(startkey).values()) {
+			Map<String, byte[]> record = head.visibleRecord(snapshot);
+			if (record == null) continue;
 			HashMap<String, ByteIterator> values = new HashMap<String, ByteIterator>();
 			retrieve(record, fields, values);
 			result.add(values);
@@ -134,11 +238,17 @@ public class REFITYCSBDatabase extends DB {
 		if (t == null) return Status.NOT_FOUND;
 
 		// Get record
-		Map<String, ByteIterator> record = t.get(key);
+		Map<String, byte[]> record = t.getRecord(key, LATEST);
 		if (record == null) return Status.NOT_FOUND;
 
 		// Update record
-		record.putAll(values);
+		if (!VERSIONED) {
+			putValues(record, values);
+			return Status.OK;
+		}
+		Map<String, byte[]> updated = new HashMap<String, byte[]>(record);
+		putValues(updated, values);
+		t.putRecord(key, updated, version);
 		return Status.OK;
 	}
 
@@ -150,10 +260,12 @@ public class REFITYCSBDatabase extends DB {
 		if (t == null) return Status.NOT_FOUND;
 
 		// Check whether the record already exists
-		if (t.containsKey(key)) return Status.ERROR;
+		if (t.getRecord(key, LATEST) != null) return Status.ERROR;
 
 		// Insert record
-		t.put(key, values);
+		Map<String, byte[]> record = new HashMap<String, byte[]>();
+		putValues(record, values);
+		t.putRecord(key, record, version);
 		return Status.OK;
 	}
 
@@ -165,25 +277,28 @@ public class REFITYCSBDatabase extends DB {
 		if (t == null) return Status.NOT_FOUND;
 
 		// Delete record
-		Map<String, ByteIterator> record = t.remove(key);
-		return (record != null) ? Status.OK : Status.NOT_FOUND;
+		if (t.getRecord(key, LATEST) == null) return Status.NOT_FOUND;
+		t.putRecord(key, null, version);
+		return Status.OK;
 	}
 
 	public void store(REFITData destination) {
-		destination.putInt(database.size());
-		for (Entry<String, REFITYCSBTable> table : database.entrySet()) {
+		// Store tables in a deterministic order
+		TreeMap<String, REFITYCSBTable> tables = new TreeMap<String, REFITYCSBTable>(database);
+		destination.putInt(tables.size());
+		for (Entry<String, REFITYCSBTable> table : tables.entrySet()) {
 			destination.putString(table.getKey());
 			table.getValue().store(destination);
 		}
 		destination.complete();
 	}
 
-	public void load(REFITData source, boolean copy) {
+	public void load(REFITData source) {
 		int size = source.getInt();
 		for (int i = 0; i < size; i++) {
 			String key = source.getString();
 			REFITYCSBTable table = new REFITYCSBTable();
-			table.load(source, copy);
+			table.load(source);
 			database.put(key, table);
 		}
 	}
@@ -193,26 +308,56 @@ public class REFITYCSBDatabase extends DB {
 	// # HELPERS #
 	// ###########
 
-	private static void retrieve(Map<String, ByteIterator> record, Set<String> fields, Map<String, ByteIterator> result) {
+	private static void retrieve(Map<String, byte[]> record, Set<String> fields, Map<String, ByteIterator> result) {
 		if (fields != null) {
 			// Retrieve specific fields
 			for (String field : fields) {
-				ByteIterator value = record.get(field);
+				byte[] value = record.get(field);
 				if (value == null) continue;
-				value.reset();
-				result.put(field, value);
+				result.put(field, new ByteArrayByteIterator(value));
 			}
 			return;
 		} else {
 			// Retrieve all fields
-			for (Entry<String, ByteIterator> entry : record.entrySet()) {
-				ByteIterator value = entry.getValue();
-				value.reset();
-				result.put(entry.getKey(), value);
+			for (Entry<String, byte[]> entry : record.entrySet()) {
+				result.put(entry.getKey(), new ByteArrayByteIterator(entry.getValue()));
 			}
 		}
 	}
 
+	private static void putValues(Map<String, byte[]> record, Map<String, ByteIterator> values) {
+		for (Entry<String, ByteIterator> value : values.entrySet()) {
+			record.put(value.getKey(), value.getValue().toArray());
+		}
+	}
+
+	private static void putRawRecord(REFITData buffer, Map<String, byte[]> record) {
+		// Store record size
+		buffer.putInt(record.size());
+
+		// Store fields
+		for (Entry<String, byte[]> field : record.entrySet()) {
+			buffer.putString(field.getKey());
+			buffer.putInt(field.getValue().length);
+			buffer.buffer.put(field.getValue());
+		}
+	}
+
+	private static Map<String, byte[]> getRawRecord(REFITData buffer) {
+		// Retrieve record size
+		int size = buffer.getInt();
+
+		// Retrieve fields
+		Map<String, byte[]> record = new HashMap<String, byte[]>();
+		for (int i = 0; i < size; i++) {
+			String key = buffer.getString();
+			byte[] value = new byte[buffer.getInt()];
+			buffer.get(value);
+			record.put(key, value);
+		}
+		return record;
+	}
+
 	public static void putRecord(REFITData buffer, Map<String, ByteIterator> record) {
 		try {
 			// Store record size
@@ -3,8 +3,8 @@ package refit.application.ycsb;
 import java.nio.ByteBuffer;
 import java.util.*;
 
-import refit.application.REFITApplicationServer;
 import refit.application.REFITResult;
+import refit.application.REFITSnapshotApplicationServer;
 import refit.message.REFITUniqueID;
 import refit.replica.checkpoint.REFITCheckpointObject;
 import site.ycsb.ByteIterator;
@@ -12,7 +12,7 @@ import site.ycsb.Client;
 import site.ycsb.DBException;
 import site.ycsb.Status;
 
-public class REFITYCSBServer implements REFITApplicationServer {
+public class REFITYCSBServer implements REFITSnapshotApplicationServer {
 
 	private REFITYCSBDatabase database;
 
@@ -71,24 +71,59 @@ public class REFITYCSBServer implements REFITApplicationServer {
 
 	@Override
 	public boolean checkReadOnly(ByteBuffer payload) {
-		REFITYCSBOperation o = REFITYCSBOperation.OPERATIONS[payload.get(0)];
+		// Skip size field
+		REFITYCSBOperation o = REFITYCSBOperation.OPERATIONS[payload.get(payload.position() + Integer.BYTES)];
 		return REFITYCSBOperation.READ == o || REFITYCSBOperation.SCAN == o;
 	}
 
+	@Override
+	public Object getOperationType(ByteBuffer payload) {
+		return REFITYCSBOperation.OPERATIONS[payload.get(payload.position() + Integer.BYTES)];
+	}
+
+	@Override
+	public double estimateCost(ByteBuffer payload) {
+		int start = payload.position() + Integer.BYTES;
+		if (REFITYCSBOperation.OPERATIONS[payload.get(start)] != REFITYCSBOperation.SCAN) return 1;
+
+		// A scan reads up to record count records
+		int tableStart = start + Byte.BYTES;
+		int keyStart = tableStart + Integer.BYTES + payload.getInt(tableStart);
+		int countStart = keyStart + Integer.BYTES + payload.getInt(keyStart);
+		return Math.max(1, payload.getInt(countStart));
+	}
+
+	@Override
+	public Object getStateKey(ByteBuffer payload) {
+		int start = payload.position() + Integer.BYTES;
+		REFITYCSBOperation o = REFITYCSBOperation.OPERATIONS[payload.get(start)];
+		if (o == REFITYCSBOperation.SCAN) return null;
+
+		// Table and key string of the record
+		int tableStart = start + Byte.BYTES;
+		int keyStart = tableStart + Integer.BYTES + payload.getInt(tableStart);
+		int keyEnd = keyStart + Integer.BYTES + payload.getInt(keyStart);
+		ByteBuffer key = payload.duplicate();
+		key.position(tableStart);
+		key.limit(keyEnd);
+		return key.slice();
+	}
+
 	private final REFITData static_result = new REFITData(REFITYCSBBenchmark.RESULT_MAX);
 
 	@Override
 	public REFITResult processRequest(REFITUniqueID uid, long agreementSeqNr, ByteBuffer payload) {
 		static_result.clear();
+		database.setVersion(agreementSeqNr);
 
 		REFITData operation = REFITData.fromByteBuffer(payload);
 		REFITYCSBOperation o = REFITYCSBOperation.OPERATIONS[operation.getByte()];
 		switch (o) {
 		case READ:
-			read(operation, static_result);
+			read(operation, static_result, Long.MAX_VALUE);
 			break;
 		case SCAN:
-			scan(operation, static_result);
+			scan(operation, static_result, Long.MAX_VALUE);
 			break;
 		case UPDATE:
 			update(operation, static_result);
@@ -106,7 +141,40 @@ public class REFITYCSBServer implements REFITApplicationServer {
 		return new REFITResult(REFITData.toByteBuffer(static_result));
 	}
 
-	private void read(REFITData request, REFITData response) {
+	private static final ThreadLocal<REFITData> snapshot_result = ThreadLocal.withInitial(() -> new REFITData(REFITYCSBBenchmark.RESULT_MAX));
+
+	@Override
+	public boolean supportsSnapshotRead(ByteBuffer payload) {
+		return checkReadOnly(payload);
+	}
+
+	@Override
+	public REFITResult processSnapshotRead(REFITUniqueID uid, long agreementSeqNr, ByteBuffer payload) {
+		// Called concurrently, therefore each reader thread requires its own result buffer
+		REFITData result = snapshot_result.get().clear();
+
+		REFITData operation = REFITData.fromByteBuffer(payload);
+		REFITYCSBOperation o = REFITYCSBOperation.OPERATIONS[operation.getByte()];
+		switch (o) {
+		case READ:
+			read(operation, result, agreementSeqNr);
+			break;
+		case SCAN:
+			scan(operation, result, agreementSeqNr);
+			break;
+		default:
+			throw new RuntimeException("Unexpected snapshot operation: " + o);
+		}
+
+		return new REFITResult(REFITData.toByteBuffer(result));
+	}
+
+	@Override
+	public void releaseSnapshots(long horizon) {
+		database.collectGarbage(horizon);
+	}
+
+	private void read(REFITData request, REFITData response, long snapshot) {
 		// Unmarshal request
 		String table = request.getString();
 		String key = request.getString();
@@ -114,7 +182,7 @@ public class REFITYCSBServer implements REFITApplicationServer {
 
 		// Execute operation
 		Map<String, ByteIterator> values = new HashMap<String, ByteIterator>();
-		Status status = database.read(table, key, fields, values);
+		Status status = database.read(table, key, fields, values, snapshot);
 
 		// Marshal response
 		response.putByte(REFITYCSBStatus.index(status));
@@ -122,7 +190,7 @@ public class REFITYCSBServer implements REFITApplicationServer {
 		response.complete();
 	}
 
-	private void scan(REFITData request, REFITData response) {
+	private void scan(REFITData request, REFITData response, long snapshot) {
 		// Unmarshal request
 		String table = request.getString();
 		String startkey = request.getString();
@@ -131,7 +199,7 @@ public class REFITYCSBServer implements REFITApplicationServer {
 
 		// Execute operation
 		Vector<HashMap<String, ByteIterator>> result = new Vector<HashMap<String, ByteIterator>>();
-		Status status = database.scan(table, startkey, recordcount, fields, result);
+		Status status = database.scan(table, startkey, recordcount, fields, result, snapshot);
 
 		// Marshal response
 		response.putByte(REFITYCSBStatus.index(status));
@@ -199,6 +267,6 @@ public class REFITYCSBServer implements REFITApplicationServer {
 	public void applyCheckpoint(final REFITCheckpointObject[] checkpoint) {
 		if (checkpoint.length != 1) throw new InternalError("Broken checkpoint");
 		REFITData data = REFITData.fromByteBuffer(checkpoint[0].getBuffer());
-		database.load(data, true);
+		database.load(data);
 	}
 }
@@ -228,7 +228,10 @@ public class REFITBenchmark implements REFITStatisticsListener {
 	                                     final long eventValueMin, final long eventValueMax, String tagStatistics, boolean isReject) {
 		REFITLogger.logPlain(String.format("%13d %4d %6d %6.0f (%6d/%6d) %s %s", REFITTime.timeMicroUTC.getAsLong(),
 				resultIndex, eventCount, eventValueAverage, eventValueMin, eventValueMax, tagStatistics, isReject ? "rejects" : ""));
-		if (!isReject) lastEventCount = eventCount;
+		if (!isReject) {
+			lastEventCount = eventCount;
+			if (REFITClientLimiter.instance != null) REFITLogger.logEvent(this, REFITClientLimiter.instance.report());
+		}
 		if (REFITConfig.CLIENT_REPLY_STATISTICS) {
 			statistics.printReplyStats();
 			if (REFITConfig.CLIENT_SPLIT_REJECTS) rejectStatistics.printReplyStats();
@@ -38,6 +38,8 @@ public abstract class REFITClientLibrary extends REFITStage implements REFITNetw
 
 	// Only used for statistics
 	public boolean resultAfterReject;
+	// Retry hint of the latest reject
+	public int rejectRetryAfter;
 
 	public REFITClientLibrary(short clientID, REFITSchedulerGroup group, REFITIntervalStatistics statistics,
 							  REFITIntervalStatistics rejectStatistics,
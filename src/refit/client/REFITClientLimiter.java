@@ -0,0 +1,114 @@
+package refit.client;
+
+import java.util.concurrent.TimeUnit;
+
+import refit.config.REFITConfig;
+
+// Limits the number of outstanding requests of all clients of a client process, as replicas admit
+// requests based on the number of pending requests. Fully rejected requests halve the limit, completed
+// requests raise it by one per limit's worth of completions. Only one reduction happens per round, that
+// is, rejects of requests sent before the last reduction are ignored. If the replicas still reject a
+// single outstanding request, the limiter opens and holds back all requests for a request timeout.
+// Afterwards a single probe request decides whether to resume or to stay open.
+public class REFITClientLimiter {
+
+	public static final REFITClientLimiter instance = REFITConfig.CLIENT_AIMD ? new REFITClientLimiter() : null;
+
+	private enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	private static final double DECREASE = 0.5;
+	private static final long OPEN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(REFITConfig.CLIENT_REQUEST_TIMEOUT);
+
+	private State state;
+	// Unlimited until the first reject
+	private double limit;
+	private int outstanding;
+	private long sent;
+	private long roundStart;
+	private long openUntil;
+
+	private int sentSinceReport;
+
+
+	public REFITClientLimiter() {
+		this.state = State.CLOSED;
+		this.limit = Double.POSITIVE_INFINITY;
+		this.outstanding = 0;
+		this.sent = 0;
+		this.roundStart = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "AIMD";
+	}
+
+	// Blocks until another request may be sent, returns a ticket to pass to release()
+	public synchronized long acquire() throws InterruptedException {
+		while (true) {
+			long wait = admit(System.nanoTime());
+			if (wait == 0) break;
+			TimeUnit.NANOSECONDS.timedWait(this, wait);
+		}
+		outstanding++;
+		sentSinceReport++;
+		return sent++;
+	}
+
+	// Returns the maximum time to wait before checking again, 0 if a request may be sent now
+	private long admit(long now) {
+		if (state == State.OPEN) {
+			if (now < openUntil) return openUntil - now;
+			state = State.HALF_OPEN;
+		}
+		switch (state) {
+		case HALF_OPEN:
+			// Only the probe is outstanding
+			return (outstanding == 0) ? 0 : OPEN_INTERVAL;
+		default:
+			return (outstanding < limit) ? 0 : OPEN_INTERVAL;
+		}
+	}
+
+	public synchronized void release(long ticket, boolean completed, boolean fullyRejected) {
+		outstanding--;
+		if (completed) {
+			if (state == State.HALF_OPEN) {
+				state = State.CLOSED;
+				limit = 1;
+			} else if (state == State.CLOSED && limit != Double.POSITIVE_INFINITY) {
+				limit += 1 / limit;
+			}
+		} else if (fullyRejected) {
+			if (state == State.HALF_OPEN) {
+				open();
+			} else if (state == State.CLOSED && ticket >= roundStart) {
+				roundStart = sent;
+				double current = (limit != Double.POSITIVE_INFINITY) ? limit : outstanding + 1;
+				if (current <= 1) {
+					open();
+				} else {
+					limit = Math.max(1, current * DECREASE);
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = System.nanoTime() + OPEN_INTERVAL;
+	}
+
+	// Effective send rate since the last report, which is expected once per second
+	public synchronized String report() {
+		String report = String.format("sent %6d/s, limit %s (%s)", sentSinceReport,
+				(limit == Double.POSITIVE_INFINITY) ? "none" : String.format("%.1f", limit), state);
+		sentSinceReport = 0;
+		return report;
+	}
+}
@@ -1,6 +1,5 @@
 package refit.client;
 
-import refit.config.REFITConfig;
 import refit.util.REFITLogger;
 
 public abstract class REFITClientThread implements Runnable, REFITBenchmarkRunnable {
@@ -23,7 +22,7 @@ public abstract class REFITClientThread implements Runnable, REFITBenchmarkRunna
 				if (reject) {
 				// After reject, wait a semi random timeout before trying next request
 				try {
-					int timeout =  (int) ((Math.random() + 1) * (REFITConfig.REJECT_MAX_IDLE/2));
+					int timeout = REFITRejectException.backoff(service.rejectRetryAfter);
 					REFITLogger.logClient(this, service.getNodeID() + " waiting for " + timeout + "ms after reject.");
 					Thread.sleep(timeout);
 				} catch (InterruptedException e) {}
@@ -111,6 +111,25 @@ public class REFITLibByz extends REFITClientLibrary {
 
 	@Override
 	public ByteBuffer invoke(ByteBuffer request, long executeAfter, RequestMode mode) throws InterruptedException, REFITRejectException {
+		REFITClientLimiter limiter = REFITClientLimiter.instance;
+		if (limiter == null) return invokeAndWait(request, executeAfter, mode);
+
+		long ticket = limiter.acquire();
+		boolean completed = false;
+		boolean fullyRejected = false;
+		try {
+			ByteBuffer result = invokeAndWait(request, executeAfter, mode);
+			completed = true;
+			return result;
+		} catch (REFITRejectException e) {
+			fullyRejected = e.full;
+			throw e;
+		} finally {
+			limiter.release(ticket, completed, fullyRejected);
+		}
+	}
+
+	private ByteBuffer invokeAndWait(ByteBuffer request, long executeAfter, RequestMode mode) throws InterruptedException, REFITRejectException {
 		// Insert invocation request
 		invokeAsync(request, REFITConfig.ONLY_CONSISTENT ? -1 : executeAfter, REFITConfig.ONLY_CONSISTENT ? mode.toStrongMode() : mode);
 
@@ -145,7 +164,8 @@ public class REFITLibByz extends REFITClientLibrary {
 
 		// Handle reject, try again after timeout
 		if (this.reject) {
-			throw new REFITRejectException(rejectCertificate.fullyRejected());
+			rejectRetryAfter = rejectCertificate.retryAfter();
+			throw new REFITRejectException(rejectCertificate.fullyRejected(), rejectRetryAfter);
 		}
 
 		// Return result; return null if just acked
@@ -340,6 +360,7 @@ public class REFITLibByz extends REFITClientLibrary {
 					.executeAfter(instruction.executeAfter)
 					.replyReplicaID(replyReplicaID)
 					.mode(instruction.mode)
+					.deadline(REFITConfig.CLIENT_REQUEST_DEADLINE)
 					.build();
 
 			certificate.init(uid, request.mode.isTotalOrder(), request.mode.equals(RequestMode.WRITE_ACK));
@@ -381,6 +402,7 @@ public class REFITLibByz extends REFITClientLibrary {
 				request = REFITRequest.builder(request.uid, request.getPayload())
 						.executeAfter(request.executeAfter)
 						.mode(request.mode)
+						.deadline(request.deadline)
 						.build();
 				request.markPanic();
 
@@ -1,11 +1,32 @@
 package refit.client;
 
+import refit.config.REFITConfig;
+
 public class REFITRejectException extends Exception {
 
     public boolean full;
+    // Time in ms the replicas suggest to wait before retrying, 0 if unknown
+    public int retryAfter;
 
-    public REFITRejectException(boolean full) {
+    public REFITRejectException(boolean full, int retryAfter) {
         super("Request rejected!");
         this.full = full;
+        this.retryAfter = retryAfter;
+    }
+
+    public int backoff() {
+        return backoff(retryAfter);
+    }
+
+    // Semi random time to wait after a reject, randomized to avoid synchronized retries of the clients.
+    // The retry hint only extends the wait, as retrying early competes with the rejected request
+    // which may still be pending at some replicas. Hints are capped by the request timeout.
+    public static int backoff(int retryAfter) {
+        int timeout = (int) ((Math.random() + 1) * (REFITConfig.REJECT_MAX_IDLE/2));
+        if (REFITConfig.CLIENT_REJECT_RETRY_HINT && retryAfter > 0) {
+            int hint = Math.min(retryAfter, REFITConfig.CLIENT_REQUEST_TIMEOUT);
+            timeout = Math.max(timeout, (int) Math.min(REFITConfig.CLIENT_REQUEST_TIMEOUT, (Math.random() + 0.5) * hint));
+        }
+        return timeout;
     }
 }
@@ -11,9 +11,13 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import refit.communication.REFITNetworkEvents.REFITConnectionWriteableNotification;
+import refit.config.REFITConfig;
+import refit.message.REFITMessageTemplate;
 import refit.scheduler.REFITSchedulerTask;
 import refit.stage.REFITEventReceiver;
 import refit.util.REFITLogger;
@@ -26,25 +30,43 @@ public class REFITConnection {
 	// use volatile to make sure that isOpen() can return a somewhat reasonable result
 	private volatile SocketChannel socketChannel;
 	private SocketAddress socketAddress;
+	// Only the scheduler owning the connection may use the selection key. Stages merely enqueue messages
+	// and notify the worker. The key is null while the connection is not registered, in particular while
+	// it migrates to another scheduler, changes to the interest ops are then kept in migratingOps.
 	public SelectionKey selectionKey;
+	private Thread owner;
 	private boolean isReadable;
 	private boolean isWriteable;
 	private boolean isConnectable;
+	private int migratingOps;
+	private boolean readingPaused;
 	private final short id;
 
 
 	public REFITConnection(int receiveBufferSize, int sendBufferSize, REFITUnmarshaller unmarshaller, short nodeID) {
+		this(receiveBufferSize, sendBufferSize, 0, unmarshaller, nodeID);
+	}
+
+	public REFITConnection(int receiveBufferSize, int sendBufferSize, int sendCredits, REFITUnmarshaller unmarshaller, short nodeID) {
 		this.unmarshaller = unmarshaller;
-		this.receiveBuffer = ByteBuffer.allocateDirect(receiveBufferSize);
+		// Buffers are allocated on first use as most nodes never connect to every other node
+		this.receiveBufferSize = receiveBufferSize;
+		this.receiveBuffer = null;
 		this.boundedSendQueue = new ConcurrentLinkedQueue<>();
 		this.boundedSendQueueBytes = new AtomicInteger(0);
 		this.waitingForSend = new HashSet<>();
 		// FIXME: eventually get rid of sendQueue. However, this requires potentially large modifications to every single stage
 		this.sendQueue = new ConcurrentLinkedQueue<>();
+		this.sendCredits = sendCredits;
+		this.sendQueueBytes = (sendCredits > 0) ? new AtomicInteger(0) : null;
+		this.prioritySendQueue = new ConcurrentLinkedQueue<>();
 		this.useStaticSendBuffer = (sendBufferSize > 0);
-		this.staticSendBuffer = useStaticSendBuffer ? ByteBuffer.allocateDirect(sendBufferSize) : null;
+		this.sendBufferSize = sendBufferSize;
+		this.staticSendBuffer = null;
 		this.boundedSendQueueLimit = (sendBufferSize > 0) ? sendBufferSize / 2 : 10 * 1024;
 		this.sendBuffer = null;
+		this.pendingTemplateSeqNr = new AtomicLong(-1);
+		this.templateBuffer = null;
 		this.id = nodeID;
 	}
 
@@ -60,6 +82,8 @@ public class REFITConnection {
 		// Reset helper data structures
 		this.socketChannel = socketChannel;
 		selectionKey = null;
+		owner = null;
+		migratingOps = 0;
 		socketAddress = null;
 
 		// wakeup every waiting outbox
@@ -71,10 +95,16 @@ public class REFITConnection {
 		boundedSendQueue.clear();
 		boundedSendQueueBytes.set(0);
 		sendQueue.clear();
+		if (sendQueueBytes != null) sendQueueBytes.set(0);
+		prioritySendQueue.clear();
 		sendPending = false;
 		sendBuffer = null;
+		pendingTemplateSeqNr.set(-1);
+		if (receiveBuffer == null) receiveBuffer = ByteBuffer.allocateDirect(receiveBufferSize);
+		if (useStaticSendBuffer && staticSendBuffer == null) staticSendBuffer = ByteBuffer.allocateDirect(sendBufferSize);
 		receiveBuffer.clear();
 		receiveProcessedMark = 0;
+		readingPaused = false;
 
 		isReadable = true;
 		isWriteable = true;
@@ -111,17 +141,62 @@ public class REFITConnection {
 		try {
 			// Register channel for I/O operations
 			selectionKey = task.registerIO(socketChannel, (socketAddress == null) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+			owner = Thread.currentThread();
 		} catch (IOException ioe) {
 			closeConnection();
 		}
 	}
 
+	// Moves the channel to the selector of another scheduler, detach() must be called on the thread of the
+	// old scheduler, attach() on the thread of the new one
+	public void detach() {
+		if (selectionKey == null) return;
+		checkOwner();
+		migratingOps = selectionKey.interestOps();
+		selectionKey.cancel();
+		selectionKey = null;
+		owner = null;
+	}
+
+	public void attach(REFITSchedulerTask task) {
+		if (!isOpen()) return;
+		try {
+			selectionKey = task.registerIO(socketChannel, migratingOps);
+			owner = Thread.currentThread();
+		} catch (IOException ioe) {
+			closeConnection();
+			return;
+		}
+		// Readiness is unknown until the next select, just try
+		isReadable = true;
+		isWriteable = true;
+	}
+
 	public void select() {
 		isReadable = selectionKey.isReadable();
 		isWriteable = (selectionKey.interestOps() & SelectionKey.OP_WRITE) == 0 || selectionKey.isWritable();
 		isConnectable = selectionKey.isConnectable();
 	}
 
+	private void checkOwner() {
+		if (REFITConfig.ENABLE_DEBUG_CHECKS && Thread.currentThread() != owner) {
+			throw new IllegalStateException("Connection " + this + " used outside of its scheduler " + owner);
+		}
+	}
+
+	private int interestOps() {
+		return (selectionKey != null) ? selectionKey.interestOps() : migratingOps;
+	}
+
+	private void updateInterestOps(int add, int remove) {
+		if (selectionKey == null) {
+			migratingOps = migratingOps & ~remove | add;
+			return;
+		}
+		checkOwner();
+		selectionKey.interestOps(selectionKey.interestOps() & ~remove | add);
+	}
+
 	public boolean isOpen() {
 		return (socketChannel != null);
 	}
@@ -134,11 +209,13 @@ public class REFITConnection {
 		}
 		socketChannel = null;
 		selectionKey = null;
+		owner = null;
 	}
 
 	public SocketChannel takeChannel() {
 		SocketChannel channel = socketChannel;
 		selectionKey = null;
+		owner = null;
 		socketChannel = null;
 		socketAddress = null;
 		return channel;
@@ -150,7 +227,8 @@ public class REFITConnection {
 	// ###########
 
 	private final boolean useStaticSendBuffer;
-	private final ByteBuffer staticSendBuffer;
+	private final int sendBufferSize;
+	private ByteBuffer staticSendBuffer;
 
 	private final Queue<ByteBuffer> boundedSendQueue;
 	private final AtomicInteger boundedSendQueueBytes;
@@ -159,13 +237,40 @@ public class REFITConnection {
 	private volatile boolean hasWaitingForSend;
 
 	private final Queue<ByteBuffer> sendQueue;
+	// Bytes in the send queue above which the connection counts as backlogged, 0 if unlimited
+	private final int sendCredits;
+	private final AtomicInteger sendQueueBytes;
+	// Sent ahead of both other queues
+	private final Queue<ByteBuffer> prioritySendQueue;
 	private ByteBuffer sendBuffer;
 	private boolean sendPending;
 
+	// Only the latest instance of a template message is sent, it supersedes all older ones
+	private final AtomicLong pendingTemplateSeqNr;
+	private volatile REFITMessageTemplate template;
+	private ByteBuffer templateBuffer;
+
 
 	public void enqueue(ByteBuffer message) {
 		if (!isOpen()) return;
 		sendQueue.add(message);
+		if (sendQueueBytes != null) sendQueueBytes.addAndGet(message.remaining());
+	}
+
+	// Whether the peer does not keep up with reading the unbounded send queue
+	public boolean isSendBacklogged() {
+		return sendQueueBytes != null && sendQueueBytes.get() > sendCredits;
+	}
+
+	public void enqueuePriority(ByteBuffer message) {
+		if (!isOpen()) return;
+		prioritySendQueue.add(message);
+	}
+
+	public void enqueue(REFITMessageTemplate template, long seqNr) {
+		if (!isOpen()) return;
+		this.template = template;
+		pendingTemplateSeqNr.accumulateAndGet(seqNr, Math::max);
 	}
 
 	public boolean connect() throws IOException {
@@ -177,7 +282,7 @@ public class REFITConnection {
 			return false;
 		}
 
-		selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_CONNECT | SelectionKey.OP_READ);
+		updateInterestOps(SelectionKey.OP_READ, SelectionKey.OP_CONNECT);
 		return true;
 	}
 
@@ -226,35 +331,33 @@ public class REFITConnection {
 			if (!success) return;
 		}
 
-		// Prepare send buffer
-		while (true) {
-			ByteBuffer queueHead = boundedSendQueue.poll();
-			if (queueHead == null) {
-				queueHead = sendQueue.poll();
-			} else {
-				boundedSendQueueBytes.addAndGet(-queueHead.remaining());
+		// Encode the pending template message into its own buffer, thereby avoiding any allocation
+		if (pendingTemplateSeqNr.get() >= 0) {
+			REFITMessageTemplate template = this.template;
+			if (templateBuffer == null || templateBuffer.capacity() < template.size()) {
+				templateBuffer = ByteBuffer.allocateDirect(template.size());
 			}
-			if (queueHead == null) break;
+			templateBuffer.clear();
+			template.encode(templateBuffer, id, pendingTemplateSeqNr.getAndSet(-1));
+			templateBuffer.flip();
+			sendBuffer = templateBuffer;
+			boolean success = trySend();
+			if (!success) return;
+		}
+
+		// Prepare send buffer
+		Queue<ByteBuffer> queue;
+		while ((queue = nextSendQueue()) != null) {
+			ByteBuffer queueHead = dequeue(queue);
 			// Only fallback to message buffer, if message is too large
 			if (useStaticSendBuffer && staticSendBuffer.remaining() >= queueHead.remaining()) {
 
 				sendBuffer = staticSendBuffer;
 				sendBuffer.put(queueHead);
-				while (!boundedSendQueue.isEmpty() || !sendQueue.isEmpty()) {
-					boolean fromBoundedQueue = true;
-					ByteBuffer message = boundedSendQueue.peek();
-					if (message == null) {
-						message = sendQueue.peek();
-						fromBoundedQueue = false;
-					}
+				while ((queue = nextSendQueue()) != null) {
+					ByteBuffer message = queue.peek();
 					if (sendBuffer.remaining() < message.remaining()) break;
-					if (fromBoundedQueue) {
-						boundedSendQueue.poll();
-						boundedSendQueueBytes.addAndGet(-message.remaining());
-					} else {
-						sendQueue.poll();
-					}
-					sendBuffer.put(message);
+					sendBuffer.put(dequeue(queue));
 				}
 				sendBuffer.flip();
 			} else {
@@ -271,6 +374,20 @@ public class REFITConnection {
 		}
 	}
 
+	private Queue<ByteBuffer> nextSendQueue() {
+		if (!prioritySendQueue.isEmpty()) return prioritySendQueue;
+		if (!boundedSendQueue.isEmpty()) return boundedSendQueue;
+		if (!sendQueue.isEmpty()) return sendQueue;
+		return null;
+	}
+
+	private ByteBuffer dequeue(Queue<ByteBuffer> queue) {
+		ByteBuffer message = queue.poll();
+		if (queue == boundedSendQueue) boundedSendQueueBytes.addAndGet(-message.remaining());
+		else if (queue == sendQueue && sendQueueBytes != null) sendQueueBytes.addAndGet(-message.remaining());
+		return message;
+	}
+
 	private boolean trySend() {
 		try {
 			// Try to send data
@@ -279,7 +396,7 @@ public class REFITConnection {
 			sendPending = (bytesSent < bytesToSend);
 			if (sendPending) {
 				//REFITLogger.logWarning(this, "write stalled (" + socketChannel.socket().getRemoteSocketAddress() + "): only " + bytesSent + " of " + bytesToSend + " bytes sent");
-				selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+				updateInterestOps(SelectionKey.OP_WRITE, 0);
 				isWriteable = false;
 				return false;
 			}
@@ -287,7 +404,7 @@ public class REFITConnection {
 			// Sending has been successful
 			if (sendBuffer == staticSendBuffer) sendBuffer.clear();
 			else sendBuffer = null;
-			selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+			updateInterestOps(0, SelectionKey.OP_WRITE);
 			return true;
 		} catch (IOException ioe) {
 			REFITLogger.logWarning(this, "Broken connection");
@@ -301,11 +418,32 @@ public class REFITConnection {
 	// # RECEIVING #
 	// #############
 
-	private final ByteBuffer receiveBuffer;
+	private final int receiveBufferSize;
+	private ByteBuffer receiveBuffer;
 	private int receiveProcessedMark;
 
 
+	// Stops selecting the channel for reads, data then piles up in the socket and TCP pushes back on the sender
+	public void pauseReading() {
+		if (readingPaused || (interestOps() & SelectionKey.OP_READ) == 0) return;
+		readingPaused = true;
+		updateInterestOps(0, SelectionKey.OP_READ);
+	}
+
+	public void resumeReading() {
+		if (!readingPaused) return;
+		readingPaused = false;
+		updateInterestOps(SelectionKey.OP_READ, 0);
+		// Data may have arrived in the meantime
+		isReadable = true;
+	}
+
 	public void receive(Consumer<ByteBuffer> messageHandler) {
+		receive(null, messageHandler);
+	}
+
+	// The filter sees each message before it is copied out of the receive buffer and must not move the buffer's position
+	public void receive(Predicate<ByteBuffer> filter, Consumer<ByteBuffer> messageHandler) {
 		// Check whether connection is open and data is available
 		if (!isOpen()) return;
 		if (!isReadable) return;
@@ -342,6 +480,7 @@ public class REFITConnection {
 		boolean receivedAMessage = false;
 		while (receiveBuffer.hasRemaining()) {
 			boolean foundMessage = unmarshaller.unmarshalMessage(receiveBuffer, messageBuffer -> {
+				if (filter != null && !filter.test(messageBuffer)) return;
 				final ByteBuffer messageCopy = ByteBuffer.allocate(messageBuffer.remaining());
 				messageCopy.put(messageBuffer);
 				messageCopy.flip();
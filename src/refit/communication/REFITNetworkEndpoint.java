@@ -15,6 +15,7 @@ import refit.communication.REFITNetworkEvents.REFITConnectionWriteableNotificati
 import refit.communication.REFITNetworkEvents.REFITInitialConnectionsCompleted;
 import refit.config.REFITConfig;
 import refit.message.REFITMessage;
+import refit.message.REFITMessageTemplate;
 import refit.scheduler.REFITSchedulerFacade;
 import refit.scheduler.REFITSchedulerTask;
 import refit.scheduler.REFITSchedulerTaskType;
@@ -308,7 +309,21 @@ public class REFITNetworkEndpoint extends REFITSchedulerTask {
 
 		ByteBuffer buffer = message.getBuffer();
 		if (workers[nodeID].isOpen()) {
-			workers[nodeID].enqueueMessage(buffer);
+			if (REFITConfig.PRIORITY_LANES && message.type.isPriority()) {
+				workers[nodeID].enqueuePriorityMessage(buffer);
+			} else {
+				workers[nodeID].enqueueMessage(buffer);
+			}
+		} else {
+			if (REFITLogger.LOG_COMMUNICATION)
+				REFITLogger.logCommunication(this, "Trying to send message to unavailable node " + nodeID);
+		}
+	}
+
+	// Sends the template instance (nodeID, seqNr), older pending instances for the node are dropped
+	public void unicastMessage(REFITMessageTemplate template, long seqNr, short nodeID) {
+		if (workers[nodeID].isOpen()) {
+			workers[nodeID].enqueueMessage(template, seqNr);
 		} else {
 			if (REFITLogger.LOG_COMMUNICATION)
 				REFITLogger.logCommunication(this, "Trying to send message to unavailable node " + nodeID);
@@ -5,9 +5,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import refit.communication.REFITNetworkEvents.REFITConnectionWriteableNotification;
 import refit.config.REFITConfig;
+import refit.message.REFITMessageTemplate;
 import refit.scheduler.REFITSchedulerTask;
 import refit.scheduler.REFITSchedulerTaskType;
 import refit.stage.REFITEventReceiver;
@@ -24,14 +26,17 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 	private REFITNodeAddress address;
 
 	private boolean initCalled;
+	private volatile boolean awaitingCredits;
+	private final Runnable creditCallback = this::creditsAvailable;
 
 	public REFITNetworkEndpointWorker(REFITNetworkInboundRouter replica, REFITNetworkEndpoint endpoint, short replicaID, short nodeID, ConnectionParameters parameters) {
 		super(parameters.taskType, replica.getGroup());
 		this.replica = replica;
 		this.endpoint = endpoint;
 		this.nodeID = nodeID;
-		this.connection = new REFITConnection(parameters.receiveBufferSize, parameters.sendBufferSize, REFITUnmarshaller.instance, nodeID);
+		this.connection = new REFITConnection(parameters.receiveBufferSize, parameters.sendBufferSize, parameters.sendCredits, REFITUnmarshaller.instance, nodeID);
 		this.initCalled = false;
+		this.awaitingCredits = false;
 		this.instanceName = String.format("NWK%02d", nodeID);
 	}
 
@@ -82,7 +87,28 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 		connection.select();
 	}
 
+	@Override
+	public boolean isMigratable() {
+		// Connections which are not set up yet must be registered by the current scheduler
+		return !initCalled && connection.isOpen() && connection.selectionKey != null;
+	}
+
+	@Override
+	protected void beforeMigration() {
+		connection.detach();
+	}
+
+	@Override
+	protected void afterMigration() {
+		connection.attach(this);
+	}
+
 	private final Consumer<ByteBuffer> messageHandler = this::handleMessage;
+	private final Predicate<ByteBuffer> messageFilter = this::admitMessage;
+
+	private boolean admitMessage(ByteBuffer message) {
+		return replica.admitMessage(message, nodeID);
+	}
 
 	private void handleMessage(ByteBuffer message) {
 		// Forward request
@@ -103,7 +129,12 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 		connection.send();
 
 		// Handle receiving
-		connection.receive(messageHandler);
+		if (mayReceive()) {
+			connection.resumeReading();
+			connection.receive(messageFilter, messageHandler);
+		} else {
+			connection.pauseReading();
+		}
 
 		if (!connection.isOpen() && address != null) {
 			REFITNodeAddress address = this.address;
@@ -112,6 +143,22 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 		}
 	}
 
+	// Stop reading while the peer does not read its replies or the stages fed by the peer are out of credits
+	private boolean mayReceive() {
+		if (connection.isSendBacklogged() || awaitingCredits) return false;
+		if (replica.hasCredits(nodeID)) return true;
+		awaitingCredits = true;
+		if (replica.awaitCredits(nodeID, creditCallback)) return false;
+		// The stages caught up in the meantime, the callback will only cause a spurious execution
+		awaitingCredits = false;
+		return true;
+	}
+
+	private void creditsAvailable() {
+		awaitingCredits = false;
+		progress();
+	}
+
 	// ###########
 	// # SENDING #
 	// ###########
@@ -121,6 +168,16 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 		progress();
 	}
 
+	public void enqueuePriorityMessage(ByteBuffer message) {
+		connection.enqueuePriority(message);
+		progress();
+	}
+
+	public void enqueueMessage(REFITMessageTemplate template, long seqNr) {
+		connection.enqueue(template, seqNr);
+		progress();
+	}
+
 	public boolean boundedEnqueueMessage(ByteBuffer message, REFITEventReceiver<? super REFITConnectionWriteableNotification> stage) {
 		boolean success = connection.boundedEnqueue(message, stage);
 		progress();
@@ -138,11 +195,17 @@ public class REFITNetworkEndpointWorker extends REFITSchedulerTask {
 		public final REFITSchedulerTaskType taskType;
 		public final int receiveBufferSize;
 		public final int sendBufferSize;
+		public final int sendCredits;
 
 		public ConnectionParameters(REFITSchedulerTaskType taskType, int receiveBufferSize, int sendBufferSize) {
+			this(taskType, receiveBufferSize, sendBufferSize, 0);
+		}
+
+		public ConnectionParameters(REFITSchedulerTaskType taskType, int receiveBufferSize, int sendBufferSize, int sendCredits) {
 			this.taskType = taskType;
 			this.receiveBufferSize = receiveBufferSize;
 			this.sendBufferSize = sendBufferSize;
+			this.sendCredits = sendCredits;
 		}
 	}
 }
@@ -4,4 +4,21 @@ import java.nio.ByteBuffer;
 
 public interface REFITNetworkInboundRouter extends REFITScheduledRouter {
 	void receiveMessage(ByteBuffer message, short nodeID);
+
+	// Called with the message still in the receive buffer, before it is copied and passed to
+	// receiveMessage(). Returns false if the message was already handled and must be dropped.
+	default boolean admitMessage(ByteBuffer message, short nodeID) {
+		return true;
+	}
+
+	// Whether the stages fed by the node can take further messages
+	default boolean hasCredits(short nodeID) {
+		return true;
+	}
+
+	// Registers the callback with the stages fed by the node which are out of credits, it runs once they
+	// have caught up. Returns false if the stages have credits again.
+	default boolean awaitCredits(short nodeID, Runnable callback) {
+		return false;
+	}
 }
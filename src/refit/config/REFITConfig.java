@@ -49,6 +49,8 @@ public class REFITConfig {
 
 	// Intervals and timeouts
 	public static final int CLIENT_REQUEST_TIMEOUT = config.getInt("client.timeout.request");
+	public static final int CLIENT_REQUEST_DEADLINE = config.getInt("client.timeout.deadline");
+	public static final boolean CLIENT_AIMD = config.getBoolean("client.aimd");
 	public static final int REPLICA_REQUEST_TIMEOUT = config.getInt("replica.timeout.request");
 	public static final int REPLICA_PANIC_INTERVAL = config.getInt("replica.timeout.panic_interval");
 
@@ -101,10 +103,26 @@ public class REFITConfig {
 	public static final int REJECT_GRACE = config.getInt("replica.idem.reject_grace_period");
 	public static final int REJECT_THRESHOLD = config.getInt("replica.idem.reject_threshold");
 	public static final int REJECT_MAX_IDLE = config.getInt("replica.idem.reject_max_idle");
+	public static final boolean CLIENT_REJECT_RETRY_HINT = config.getBoolean("client.reject_retry_hint");
 	public static final int REJECT_TIMEOUT = config.getInt("replica.idem.reject_timeout");
 	public static final boolean ACTIVE_QUEUE_MANAGEMENT = config.getBoolean("replica.idem.active_queue_management");
+	public static final boolean LOAD_GOSSIP = config.getBoolean("replica.idem.load_gossip");
+	public static final boolean EARLY_REJECT = config.getBoolean("replica.idem.early_reject");
 	public static final int CLIENT_GROUPS = (REJECT_THRESHOLD != 0 && REJECT_THRESHOLD < NR_OF_CLIENTS[0]) ? NR_OF_CLIENTS[0] / REJECT_THRESHOLD : 1;
 	public static final int CLIENT_TIME_SLICE = config.getInt("replica.idem.time_slice");
+	public static final int CATCHUP_LOG_DEPTH = config.getInt("replica.idem.catchup_log");
+	public static final boolean COALESCE_READS = config.getBoolean("replica.idem.coalesce_reads");
+	public static final int SNAPSHOT_READERS = config.getInt("replica.idem.snapshot_readers");
+	public static final int PENDING_SLAB_SLOTS = config.getInt("replica.idem.pending_slab_slots");
+	public static final int PENDING_SLAB_SLOT_SIZE = config.getInt("replica.idem.pending_slab_slot_size");
+	public static final int RESULT_RETENTION = config.getInt("replica.idem.result_retention");
+	public static final boolean BATCHED_EXECUTION = config.getBoolean("replica.idem.batched_execution");
+	public static final boolean RECORD_COMMITS = config.getBoolean("replica.idem.record_commits");
+	public static final int PROFILE_INTERVAL = config.getInt("replica.idem.profile_interval");
+	public static final int ADMISSION_TARGET = config.getInt("replica.idem.admission_target");
+	public static final int ADMISSION_INTERVAL = config.getInt("replica.idem.admission_interval");
+	public static final int COST_BUDGET = config.getInt("replica.idem.cost_budget");
+	public static final int[][] TENANTS = config.getIntArrayArray("replica.idem.tenants");
 
 	static {
 		if (ACTIVE_QUEUE_MANAGEMENT && CLIENT_TIME_SLICE == 0) {
@@ -141,6 +159,9 @@ public class REFITConfig {
 	// Schedulers
 	public static final int NR_OF_CLIENT_SCHEDULERS = config.getInt("client.schedulers");
 	public static final int NR_OF_REPLICA_SCHEDULERS = config.getInt("replica.schedulers");
+	public static final boolean SCHEDULER_MIGRATION = config.getBoolean("replica.scheduler.migration");
+	public static final int TIMER_TICK = config.getInt("system.timer_tick");
+	public static final int SCHEDULER_IDLE_SPIN = config.getInt("system.scheduler.idle_spin");
 
 	// Benchmark workload
 	public static final int REQUEST_SIZE = config.getInt("application.request_size");
@@ -174,6 +195,9 @@ public class REFITConfig {
 	public static final int REPLICA_NETWORK_RECEIVE_BUFFER_SIZE = 1024 * config.getInt("replica.network.buffer.receive.kb");
 	public static final int REPLICA_NETWORK_CONNECTORS = config.getInt("replica.network.connectors");
 	public static final int SERVER_SOCKET_BACKLOG = config.getInt("replica.network.socket_backlog");
+	public static final boolean PRIORITY_LANES = config.getBoolean("replica.network.priority_lanes");
+	public static final int NETWORK_SEND_CREDITS = config.getInt("replica.network.send_credits");
+	public static final int STAGE_INBOX_CREDITS = config.getInt("replica.stage.inbox_credits");
 	public static final int CLIENT_NETWORK_RECEIVE_BUFFER_SIZE = 1024 * config.getInt("replica.network.buffer.client.kb");
 	public static final int CLIENT_RECEIVE_BUFFER_SIZE = 1024 * config.getInt("client.network.buffer.receive.kb");
 	public static final int CLIENT_SEND_BUFFER_SIZE = 1024 * config.getInt("client.network.buffer.send.kb");
@@ -165,6 +165,20 @@ public class REFITProperties {
 		return array;
 	}
 
+	public int[][] getIntArrayArray(String key) {
+		// Same format as getShortArrayArray
+		String[] parts = getStringArray(key);
+		int[][] array = new int[parts.length][];
+		for (int i = 0; i < array.length; i++) {
+			String[] splits = parts[i].split(" +");
+			array[i] = new int[splits.length];
+			for (int j = 0; j < splits.length; j++) {
+				array[i][j] = Integer.parseInt(splits[j]);
+			}
+		}
+		return array;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T> Class<? extends T> getClass(String key, Class<T> superclass) {
 		String className = getSafeProperty(key);
@@ -102,6 +102,19 @@ public abstract class REFITMessage extends REFITBaseMessage implements REFITEven
 		}
 	}
 
+	// Header fields of a serialized message, read without decoding it
+	public static boolean peekIsType(ByteBuffer buffer, REFITMessageType type) {
+		return buffer.remaining() >= Integer.BYTES + HEADER_SIZE && buffer.get(buffer.position() + TYPE_POSITION) == type.getMagic();
+	}
+
+	public static long peekSeqNr(ByteBuffer buffer) {
+		return buffer.getLong(buffer.position() + TYPE_POSITION + Byte.BYTES + Short.BYTES);
+	}
+
+	public static short peekFrom(ByteBuffer buffer) {
+		return buffer.getShort(buffer.position() + TYPE_POSITION + Byte.BYTES + Short.BYTES + Long.BYTES);
+	}
+
 	public static REFITMessage createMessage(ByteBuffer buffer) {
 		REFITMessageType type = REFITMessageType.getType(buffer.get(buffer.position() + TYPE_POSITION));
 		return type.createMessage(buffer);
@@ -0,0 +1,45 @@
+package refit.message;
+
+import java.nio.ByteBuffer;
+
+// Serialized form of an unauthenticated message whose instances only differ in their unique id.
+// Encoding an instance patches the id into a copy of the template without creating a message object.
+// The remaining content can be replaced, instances encoded afterwards then carry the new content.
+public class REFITMessageTemplate {
+
+	// Header fields:                 size        +    type
+	private static final int UID_POSITION = Integer.BYTES + Byte.BYTES;
+
+	// Replaced as a whole as encoding may happen concurrently
+	private volatile byte[] template;
+
+
+	public REFITMessageTemplate(REFITMessage prototype) {
+		update(prototype);
+	}
+
+	public void update(REFITMessage prototype) {
+		if (prototype.getAuthenticationType() != REFITMessage.AuthenticationType.NONE) {
+			throw new IllegalArgumentException("Templates cannot carry authenticators: " + prototype);
+		}
+		if (template != null && prototype.calculateMessageSize() != template.length) {
+			throw new IllegalArgumentException("Template size must not change: " + prototype);
+		}
+		prototype.serializeMessage();
+		ByteBuffer buffer = prototype.getBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		this.template = bytes;
+	}
+
+	public int size() {
+		return template.length;
+	}
+
+	public void encode(ByteBuffer target, short nodeID, long seqNr) {
+		int start = target.position();
+		target.put(template);
+		target.putShort(start + UID_POSITION, nodeID);
+		target.putLong(start + UID_POSITION + Short.BYTES, seqNr);
+	}
+}
@@ -9,6 +9,8 @@ import refit.agreement.idem.IDEMMessage.IDEMPropose;
 import refit.agreement.idem.IDEMMessage.IDEMReject;
 import refit.agreement.idem.IDEMMessage.IDEMRequire;
 import refit.agreement.idem.IDEMMessage.IDEMForwardRequest;
+import refit.agreement.idem.IDEMMessage.IDEMLogMessage;
+import refit.agreement.idem.IDEMMessage.IDEMLogRequest;
 import refit.agreement.idem.IDEMMessage.IDEMViewChangeMessage;
 import refit.replica.checkpoint.REFITCheckpoint;
 import refit.replica.checkpoint.REFITCheckpointRequest;
@@ -42,6 +44,8 @@ public enum REFITMessageType {
 	IDEM_VIEW_CHANGE,
 	IDEM_CHECKPOINT_REQUEST,
 	IDEM_CHECKPOINT,
+	IDEM_LOG_REQUEST,
+	IDEM_LOG,
 
 	MICRO,
 	;
@@ -56,6 +60,22 @@ public enum REFITMessageType {
 		return (byte) ordinal();
 	}
 
+	// Agreement messages which are sent and handled ahead of client traffic if priority lanes are enabled
+	public boolean isPriority() {
+		switch (this) {
+		case CHECKPOINT:
+		case CHECKPOINT_REQUEST:
+		case IDEM_PROPOSE:
+		case IDEM_COMMIT:
+		case IDEM_VIEW_CHANGE:
+		case IDEM_CHECKPOINT_REQUEST:
+		case IDEM_CHECKPOINT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	public REFITMessage createMessage(ByteBuffer buffer) {
 		switch (this) {
 		case REQUEST:
@@ -90,6 +110,10 @@ public enum REFITMessageType {
 			return new IDEMCheckpointRequest(buffer);
 		case IDEM_CHECKPOINT:
 			return new IDEMCheckpointMessage(buffer);
+		case IDEM_LOG_REQUEST:
+			return new IDEMLogRequest(buffer);
+		case IDEM_LOG:
+			return new IDEMLogMessage(buffer);
 		case MICRO:
 			return new REFITMicro(buffer);
 		default:
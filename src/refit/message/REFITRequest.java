@@ -73,6 +73,7 @@ public final class REFITRequest extends REFITOrderRequest {
 		private long executeAfter = -1L;
 		private short replyReplicaID = -1;
 		private RequestMode mode = RequestMode.WRITE;
+		private int deadline = 0;
 
 		private Builder(REFITUniqueID uid, ByteBuffer payload) {
 			this.uid = uid;
@@ -100,6 +101,11 @@ public final class REFITRequest extends REFITOrderRequest {
 			return this;
 		}
 
+		public Builder deadline(int deadline) {
+			this.deadline = deadline;
+			return this;
+		}
+
 		public REFITRequest build() {
 			return new REFITRequest(this);
 		}
@@ -110,16 +116,24 @@ public final class REFITRequest extends REFITOrderRequest {
 	}
 
 
+	// Header fields :                             flags   +   execAfter  + replyReplica + payloadSize
 	private static final int REQUEST_HEADER_SIZE = Byte.BYTES + Long.BYTES + Short.BYTES + Short.BYTES;
+	private static final int DEADLINE_FLAG = 1 << 6;
+	private static final int FLAGS_POSITION = Integer.BYTES + HEADER_SIZE;
 
 	public final long executeAfter;
 	public boolean isPanic;
 	public final RequestMode mode;
 	public final short replyReplicaID;
+	// Time in ms after sending after which the client no longer waits for the result, 0 if unlimited.
+	// Only serialized if set.
+	public final int deadline;
 	private ByteBuffer payload;
 
 	public boolean isForward;
 	public transient long timestamp;
+	// Estimated execution cost used by admission control
+	public transient double cost;
 
 	private REFITRequest(Builder builder) {
 		super(REFITMessageType.REQUEST, builder.uid, builder.from);
@@ -127,6 +141,7 @@ public final class REFITRequest extends REFITOrderRequest {
 		this.mode = builder.mode;
 		this.executeAfter = builder.executeAfter;
 		this.replyReplicaID = builder.replyReplicaID;
+		this.deadline = builder.deadline;
 		this.payload = builder.payload;
 		this.isForward = false;
 	}
@@ -140,6 +155,7 @@ public final class REFITRequest extends REFITOrderRequest {
 		this.mode = RequestMode.values()[modeIdx];
 		this.executeAfter = buffer.getLong();
 		this.replyReplicaID = buffer.getShort();
+		this.deadline = ((flags & DEADLINE_FLAG) != 0) ? buffer.getInt() : 0;
 		short payloadSize = buffer.getShort();
 		this.payload = buffer.slice();
 		this.payload.limit(payloadSize);
@@ -160,6 +176,20 @@ public final class REFITRequest extends REFITOrderRequest {
 		}
 	}
 
+	// Flags of a serialized request, read without decoding it
+	public static boolean peekIsRequest(ByteBuffer buffer) {
+		return peekIsType(buffer, REFITMessageType.REQUEST) && buffer.remaining() > FLAGS_POSITION;
+	}
+
+	public static boolean peekIsPanicOrForward(ByteBuffer buffer) {
+		return (buffer.get(buffer.position() + FLAGS_POSITION) & 3) != 0;
+	}
+
+	public static RequestMode peekMode(ByteBuffer buffer) {
+		int modeIdx = (buffer.get(buffer.position() + FLAGS_POSITION) >> 2) & 0xf;
+		return (modeIdx < RequestMode.values().length) ? RequestMode.values()[modeIdx] : null;
+	}
+
 	public void markPanic() {
 		isPanic = true;
 	}
@@ -187,9 +217,10 @@ public final class REFITRequest extends REFITOrderRequest {
 		super.serialize(buffer);
 		int modeIdx = mode.ordinal();
 		REFITAssert.assertTrue(modeIdx < 16, "Only up to 16 request modes are supported");
-		buffer.put((byte) ((isPanic ? 1 : 0) + ((isForward ? 1 : 0) << 1) + (modeIdx << 2)));
+		buffer.put((byte) ((isPanic ? 1 : 0) + ((isForward ? 1 : 0) << 1) + (modeIdx << 2) + ((deadline != 0) ? DEADLINE_FLAG : 0)));
 		buffer.putLong(executeAfter);
 		buffer.putShort(replyReplicaID);
+		if (deadline != 0) buffer.putInt(deadline);
 		int payloadSize = payload.remaining();
 		buffer.putShort((short) payloadSize);
 		// replace command ByteBuffer after serialization to store the data only once
@@ -211,7 +242,7 @@ public final class REFITRequest extends REFITOrderRequest {
 
 	@Override
 	protected int getHeaderSize() {
-		return (super.getHeaderSize() + REQUEST_HEADER_SIZE);
+		return (super.getHeaderSize() + REQUEST_HEADER_SIZE + ((deadline != 0) ? Integer.BYTES : 0));
 	}
 
 	@Override
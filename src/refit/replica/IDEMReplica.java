@@ -1,15 +1,20 @@
 package refit.replica;
 
+import java.nio.ByteBuffer;
+
 import refit.agreement.idem.IDEMMessage.IDEMCheckpointMessage;
 import refit.agreement.idem.IDEMMessage.IDEMCheckpointRequest;
 import refit.agreement.idem.IDEMMessage.IDEMCommit;
 import refit.agreement.idem.IDEMMessage.IDEMForwardRequest;
+import refit.agreement.idem.IDEMMessage.IDEMLogMessage;
+import refit.agreement.idem.IDEMMessage.IDEMLogRequest;
 import refit.agreement.idem.IDEMMessage.IDEMPropose;
 import refit.agreement.idem.IDEMMessage.IDEMRequire;
 import refit.agreement.idem.IDEMMessage.IDEMViewChangeMessage;
 import refit.agreement.idem.execution.IDEMExecutionStage;
 import refit.agreement.idem.order.IDEMOrderStage;
 import refit.application.REFITApplicationServer;
+import refit.config.REFITConfig;
 import refit.message.REFITRequest;
 import refit.scheduler.REFITScheduler;
 import refit.scheduler.REFITSchedulerTaskType;
@@ -38,6 +43,8 @@ public class IDEMReplica extends REFITBaseReplica {
 		addToInbound(IDEMCommit.class, executionStage);
 		addToInbound(IDEMCheckpointRequest.class, executionStage);
 		addToInbound(IDEMCheckpointMessage.class, executionStage);
+		addToInbound(IDEMLogRequest.class, executionStage);
+		addToInbound(IDEMLogMessage.class, executionStage);
 
 		addToInbound(IDEMRequire.class, orderStage);
 		addToInbound(IDEMViewChangeMessage.class, orderStage);
@@ -51,6 +58,13 @@ public class IDEMReplica extends REFITBaseReplica {
 		this.orderStage.commitSender.addListener(executionStage);
 	}
 
+	@Override
+	public boolean admitMessage(ByteBuffer message, short nodeID) {
+		// Client requests may be rejected before they are decoded
+		if (executionStage.earlyReject == null || nodeID < REFITConfig.TOTAL_NR_OF_REPLICAS) return true;
+		return executionStage.earlyReject.admit(message, nodeID);
+	}
+
 	@Override
 	protected void assignTasks(REFITScheduler[] schedulers) {
 		schedulers[0 % schedulers.length].assignTasks(group, REFITSchedulerTaskType.NETWORK_ENDPOINT);
@@ -7,7 +7,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
 import refit.application.REFITApplicationServer;
@@ -20,10 +22,12 @@ import refit.communication.REFITScheduledRouter;
 import refit.config.REFITConfig;
 import refit.crypto.REFITMessageAuthentication;
 import refit.message.REFITMessage;
+import refit.message.REFITMessageTemplate;
 import refit.message.REFITMessageType;
 import refit.message.REFITReplyBase;
 import refit.scheduler.REFITHangDetector;
 import refit.scheduler.REFITScheduler;
+import refit.scheduler.REFITSchedulerBalancer;
 import refit.scheduler.REFITSchedulerGroup;
 import refit.scheduler.REFITSchedulerTaskType;
 import refit.stage.REFITBoundedStage;
@@ -44,6 +48,10 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 	private REFITScheduler[] schedulers;
 	private final Map<Class<? extends REFITMessage>, REFITObserver<REFITMessage>> inbounds;
 	private final REFITObserver<REFITMessage> clientsInbound;
+	// Stages fed by the client connections, whose inbox credits gate reading requests from the network.
+	// Replica connections are never paused as agreement must not wait for stages busy with requests.
+	private final Set<REFITBoundedStage> clientInboundStages;
+	private REFITBoundedStage[] clientCreditStages;
 
 	public static final boolean[] ALL_REPLICAS = new boolean[REFITConfig.TOTAL_NR_OF_REPLICAS];
 
@@ -70,6 +78,7 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 
 		this.inbounds = new HashMap<>();
 		this.clientsInbound = new REFITObserver<>();
+		this.clientInboundStages = new LinkedHashSet<>();
 	}
 
 	private REFITReplicaContext createContext() {
@@ -110,6 +119,14 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 				// Complains if the client is not connected
 				network.unicastMessage(reply, clientID);
 			}
+
+			@Override
+			public void sendMessageToClient(REFITMessageTemplate template, long seqNr, short clientID) {
+				if (REFITConfig.ENABLE_DEBUG_CHECKS && clientID < REFITConfig.TOTAL_NR_OF_REPLICAS) {
+					throw new AssertionError("Got client template for id " + clientID + " which is not a clientID!");
+				}
+				network.unicastMessage(template, seqNr, clientID);
+			}
 		};
 	}
 
@@ -133,7 +150,7 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 								REFITConfig.REPLICA_NETWORK_RECEIVE_BUFFER_SIZE, REFITConfig.REPLICA_NETWORK_SEND_BUFFER_SIZE);
 					} else {
 						return new REFITNetworkEndpointWorker.ConnectionParameters(REFITSchedulerTaskType.CLIENT_NETWORK_ENDPOINT_WORKER,
-								REFITConfig.CLIENT_NETWORK_RECEIVE_BUFFER_SIZE, 0);
+								REFITConfig.CLIENT_NETWORK_RECEIVE_BUFFER_SIZE, 0, REFITConfig.NETWORK_SEND_CREDITS);
 					}
 				}, REFITConfig.REPLICA_NETWORK_CONNECTORS,
 				initialNodes, !createClientNetwork, initialConnects, true, false);
@@ -193,6 +210,7 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 
 	protected void addToClientInbound(REFITBoundedStage stage) {
 		clientsInbound.addListener(stage);
+		clientInboundStages.add(stage);
 	}
 
 
@@ -244,6 +262,25 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 		}
 	}
 
+	@Override
+	public boolean hasCredits(short nodeID) {
+		if (REFITConfig.STAGE_INBOX_CREDITS == 0 || nodeID < REFITConfig.TOTAL_NR_OF_REPLICAS) return true;
+		for (REFITBoundedStage stage : clientCreditStages) {
+			if (!stage.hasCredits()) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean awaitCredits(short nodeID, Runnable callback) {
+		if (nodeID < REFITConfig.TOTAL_NR_OF_REPLICAS) return false;
+		boolean waiting = false;
+		for (REFITBoundedStage stage : clientCreditStages) {
+			if (stage.awaitCredits(callback)) waiting = true;
+		}
+		return waiting;
+	}
+
 	protected void receiveMessageFromReplica(REFITMessage message) {
 		// check message type and then group type
 		REFITObserver<REFITMessage> observer = inbounds.get(message.getClass());
@@ -262,6 +299,8 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 	// ################
 
 	public void start() {
+		clientCreditStages = clientInboundStages.toArray(new REFITBoundedStage[0]);
+
 		// Create schedulers
 		schedulers = new REFITScheduler[REFITConfig.NR_OF_REPLICA_SCHEDULERS];
 		CountDownLatch startupSync = new CountDownLatch(REFITConfig.NR_OF_REPLICA_SCHEDULERS);
@@ -272,6 +311,11 @@ public abstract class REFITBaseReplica implements REFITScheduledRouter, REFITNet
 			schedulers[i].setName("RPLC" + id + "-" + i);
 		}
 
+		if (REFITConfig.SCHEDULER_MIGRATION && schedulers.length > 1) {
+			REFITSchedulerBalancer balancer = new REFITSchedulerBalancer(schedulers);
+			for (REFITScheduler scheduler : schedulers) scheduler.setBalancer(balancer);
+		}
+
 		assignTasks(schedulers);
 
 		group.assertAllTaskAreAssigned();
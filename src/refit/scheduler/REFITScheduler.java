@@ -5,11 +5,13 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
 
 import refit.config.REFITConfig;
+import refit.util.REFITLogger;
+import refit.util.REFITMpscQueue;
 import refit.util.REFITTime;
 
 
@@ -21,13 +23,16 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 
 	private static final int TASK_TYPE_SUB_ITERATION_LIMIT = 64;
 	private static final int HANG_TIMEOUT_US = 500 * 1000;
+	private static final long IDLE_SPIN_NS = REFITConfig.SCHEDULER_IDLE_SPIN * 1000L;
 
 	private final Selector selector;
 
 	private final List<REFITSchedulerTask> assignedTasks;
 
-	private AtomicIntegerArray remoteReadyTasks;
-	private ConcurrentLinkedDeque<REFITSchedulerTask> remoteTaskQueue;
+	private REFITMpscQueue<REFITSchedulerTask> remoteTaskQueue;
+	private final Consumer<REFITSchedulerTask> remoteTaskTransfer = this::transferRemoteTask;
+	// Only set while blocking in select if idle schedulers spin, other threads then skip the wakeup
+	private volatile boolean parked;
 	private boolean[] readyTasks;
 	private ArrayDeque<REFITSchedulerTask> taskQueue;
 
@@ -39,11 +44,19 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 	private final CountDownLatch startupSync;
 	private final REFITHangDetector hangDetector;
 
+	// Task migration, only used with a balancer
+	private REFITSchedulerBalancer balancer;
+	private ConcurrentLinkedQueue<REFITSchedulerTask> incomingTasks;
+	private long[] busyTimes;
+	private long busyTime;
+	private long epochStart;
+	private volatile double utilization;
+
 
 	public REFITScheduler(CountDownLatch sync, REFITHangDetector detector) {
 		// Create list of assigned tasks
 		this.assignedTasks = new ArrayList<>();
-		this.timeouts = new TreeSet<>();
+		this.timeouts = new REFITTimerWheel(REFITTime.currentTimeMillis.getAsLong());
 		startupSync = sync;
 		hangDetector = detector;
 
@@ -73,6 +86,12 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 		task.setScheduler(this);
 	}
 
+	// Must be called before the scheduler is started
+	public void setBalancer(REFITSchedulerBalancer balancer) {
+		this.balancer = balancer;
+		this.incomingTasks = new ConcurrentLinkedQueue<>();
+	}
+
 	public SelectionKey registerIOTask(REFITSchedulerTask task, SelectableChannel channel, int operations) throws IOException {
 		if (REFITConfig.ENABLE_DEBUG_CHECKS && !assignedTasks.contains(task)) {
 			throw new IllegalArgumentException("Task not owned by this scheduler wants to register as io task " + task.toString());
@@ -93,7 +112,7 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 	// # TIMER MANAGEMENT #
 	// ####################
 
-	private final TreeSet<REFITTimer> timeouts;
+	private final REFITTimerWheel timeouts;
 	private long timerCtr; // used to provide unique ids to timers
 
 	public REFITTimer newTimer(REFITTimer.TimerCallback callback) {
@@ -133,16 +152,36 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 
 	public void notifyProgress(REFITSchedulerTask task) {
 		if (this == Thread.currentThread()) {
+			// Tasks migrating to this scheduler are executed once they are adopted
+			if (task.taskID() < 0) return;
 			if (!readyTasks[task.taskID()]) {
 				taskQueue.add(task);
 			}
 			readyTasks[task.taskID()] = true;
 			return;
 		}
-		if (remoteReadyTasks.getAndSet(task.taskID(), 1) == 0) {
+		if (!task.remoteReady.getAndSet(true)) {
 			remoteTaskQueue.add(task);
 		}
-		selector.wakeup();
+		if (IDLE_SPIN_NS == 0 || parked) selector.wakeup();
+	}
+
+	private void transferRemoteTask(REFITSchedulerTask task) {
+		task.remoteReady.set(false);
+		if (!owns(task)) {
+			// Forward tasks which have migrated in the meantime
+			if (task.scheduler() != this) task.progress();
+			return;
+		}
+		if (!readyTasks[task.taskID()]) {
+			readyTasks[task.taskID()] = true;
+			taskQueue.add(task);
+		}
+	}
+
+	private boolean owns(REFITSchedulerTask task) {
+		short id = task.taskID();
+		return id >= 0 && id < tasks.length && tasks[id] == task;
 	}
 
 	@Override
@@ -170,8 +209,8 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 		tasks = assignedTasks.toArray(new REFITSchedulerTask[0]);
 		for (short i = 0; i < tasks.length; i++) tasks[i].setTaskID(i);
 
-		remoteReadyTasks = new AtomicIntegerArray(tasks.length);
-		remoteTaskQueue = new ConcurrentLinkedDeque<>();
+		// Each task is queued at most once
+		remoteTaskQueue = new REFITMpscQueue<>(tasks.length);
 		readyTasks = new boolean[tasks.length];
 		taskQueue = new ArrayDeque<>();
 
@@ -181,13 +220,15 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 			queues.put(type, new ArrayDeque<>());
 		}
 		isQueued = new boolean[tasks.length];
+		busyTimes = new long[tasks.length];
+		epochStart = REFITTime.nanoTime.getAsLong();
 	}
 
 	private void runTasks() {
 		// For a single stage it's usually ok to not return to the scheduler
 		REFITHangDetector.Entry watchdog = (hangDetector != null && tasks.length > 1)
 				? hangDetector.register(getName(), HANG_TIMEOUT_US) : null;
-		REFITSchedulerStatistics stats = (REFITConfig.COLLECT_STAGE_STATISTICS) ? new REFITSchedulerStatistics(tasks) : null;
+		REFITSchedulerStatistics stats = (REFITConfig.COLLECT_STAGE_STATISTICS) ? new REFITSchedulerStatistics(tasks.clone()) : null;
 		REFITSlowStageTracker slow = (REFITConfig.TRACK_SLOW_STAGES) ? new REFITSlowStageTracker() : null;
 
 		selector.wakeup();
@@ -209,15 +250,10 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 				// Execute runnable tasks
 				boolean progress = false;
 
+				if (incomingTasks != null) adoptTasks();
+
 				// transfer tasks enqueued by other threads
-				while (!remoteTaskQueue.isEmpty()) {
-					REFITSchedulerTask task = remoteTaskQueue.pollFirst();
-					remoteReadyTasks.set(task.taskID(), 0);
-					if (!readyTasks[task.taskID()]) {
-						readyTasks[task.taskID()] = true;
-						taskQueue.add(task);
-					}
-				}
+				remoteTaskQueue.drain(remoteTaskTransfer);
 
 				// execute everything
 				while (!taskQueue.isEmpty()) {
@@ -227,10 +263,16 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 
 					if (slow != null) slow.taskStart();
 					if (stats != null) stats.taskStart();
+					long start = (balancer != null) ? REFITTime.nanoTime.getAsLong() : 0L;
 
 					task.execute();
 
-					if (stats != null) stats.taskEnd(task.taskID());
+					if (balancer != null) {
+						long duration = REFITTime.nanoTime.getAsLong() - start;
+						busyTimes[task.taskID()] += duration;
+						busyTime += duration;
+					}
+					if (stats != null) stats.taskEnd(task);
 					if (slow != null) slow.taskEnd(task);
 				}
 
@@ -240,10 +282,94 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 
 			if (stats != null) stats.scheduleEnd();
 			if (slow != null) slow.scheduleEnd();
+
+			// No task is executing or ready at this point, thus tasks can safely move elsewhere
+			if (balancer != null) balance();
 		}
 		if (watchdog != null) watchdog.disable();
 	}
 
+
+	// ##################
+	// # TASK MIGRATION #
+	// ##################
+
+	public double utilization() {
+		return utilization;
+	}
+
+	private void balance() {
+		long now = REFITTime.nanoTime.getAsLong();
+		long elapsed = now - epochStart;
+		if (elapsed < REFITSchedulerBalancer.INTERVAL) return;
+		double load = busyTime / (double) elapsed;
+		utilization = load;
+
+		REFITScheduler target = balancer.target(this, load);
+		if (target != null) {
+			double targetLoad = target.utilization();
+			REFITSchedulerTask hottest = null;
+			double hottestShare = 0;
+			for (REFITSchedulerTask task : tasks) {
+				if (task == null || !task.isMigratable() || now - task.lastMigration < REFITSchedulerBalancer.COOLDOWN) continue;
+				double share = busyTimes[task.taskID()] / (double) elapsed;
+				if (share > hottestShare && balancer.fits(share, load, targetLoad)) {
+					hottest = task;
+					hottestShare = share;
+				}
+			}
+			if (hottest != null) {
+				REFITLogger.logDebug(this, String.format("Moving %s (%.0f%%) to %s", hottest, hottestShare * 100, target.getName()));
+				hottest.lastMigration = now;
+				migrate(hottest, target);
+				// Assume the load moves with the task until the next measurement
+				utilization = load - hottestShare;
+			}
+		}
+
+		epochStart = now;
+		busyTime = 0L;
+		Arrays.fill(busyTimes, 0L);
+	}
+
+	private void migrate(REFITSchedulerTask task, REFITScheduler target) {
+		task.beforeMigration();
+		short id = task.taskID();
+		if (readyTasks[id]) taskQueue.remove(task);
+		readyTasks[id] = false;
+		isQueued[id] = false;
+		tasks[id] = null;
+		assignedTasks.remove(task);
+		task.resetTaskID();
+
+		// Notifications sent to this scheduler from now on are forwarded
+		task.setScheduler(target);
+		target.incomingTasks.add(task);
+		target.selector.wakeup();
+	}
+
+	private void adoptTasks() {
+		REFITSchedulerTask task;
+		while ((task = incomingTasks.poll()) != null) {
+			short id = 0;
+			while (id < tasks.length && tasks[id] != null) id++;
+			if (id == tasks.length) {
+				tasks = Arrays.copyOf(tasks, id + 1);
+				readyTasks = Arrays.copyOf(readyTasks, id + 1);
+				isQueued = Arrays.copyOf(isQueued, id + 1);
+				busyTimes = Arrays.copyOf(busyTimes, id + 1);
+			}
+			tasks[id] = task;
+			busyTimes[id] = 0L;
+			task.setTaskID(id);
+			assignedTasks.add(task);
+
+			task.afterMigration();
+			// Catch up on notifications received while the task was moving
+			notifyProgress(task);
+		}
+	}
+
 	private void collectTasks(SelectionKey key) {
 		// Collect tasks that are able to perform I/O operations
 		REFITSchedulerTask task = (REFITSchedulerTask) key.attachment();
@@ -264,13 +390,16 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 	private void selectReadyTasks() {
 		// timeout of zero blocks indefinitely
 		long timeout = 0;
-		if (!timeouts.isEmpty()) {
-			timeout = Math.max(0, timeouts.first().currentTimeout() - REFITTime.currentTimeMillis.getAsLong());
+		long nextTimeout = timeouts.nextTimeout();
+		if (nextTimeout != -1L) {
+			timeout = Math.max(0, nextTimeout - REFITTime.currentTimeMillis.getAsLong());
 		}
 		// Block until at least one task becomes runnable
 		try {
-			if (!timeouts.isEmpty() && timeout == 0 || queueSize > 0) {
+			if (nextTimeout != -1L && timeout == 0 || queueSize > 0) {
 				selector.selectNow(this::collectTasks);
+			} else if (IDLE_SPIN_NS > 0) {
+				idle(nextTimeout);
 			} else {
 				selector.select(this::collectTasks, timeout);
 			}
@@ -285,6 +414,9 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 				SelectionKey key = queue.removeFirst();
 				// the queue might have stored keys that were canceled in the meantime
 				if (!key.isValid()) {
+					REFITSchedulerTask task = (REFITSchedulerTask) key.attachment();
+					if (owns(task)) isQueued[task.taskID()] = false;
+					queueSize--;
 					i--;
 					continue;
 				}
@@ -299,11 +431,33 @@ public class REFITScheduler extends Thread implements REFITSchedulerFacade {
 
 		// Process all timeouts before starting the regular readyTasks iterations
 		// This prevents timeouts from keeping a stage permanently active
-		long timeMillis = REFITTime.currentTimeMillis.getAsLong();
-		while (!timeouts.isEmpty() && timeouts.first().currentTimeout() <= timeMillis) {
-			REFITTimer timedOutTimer = timeouts.pollFirst();
-			if (timedOutTimer == null) throw new InternalError("Whoopsie");
-			timedOutTimer.timeout();
+		timeouts.advance(REFITTime.currentTimeMillis.getAsLong());
+	}
+
+	// Polls for work without blocking for a while, yields for as long again and only then blocks in
+	// select. This avoids the wakeup and the round trip through the selector for tasks handed over
+	// by other threads shortly after the scheduler ran out of work.
+	private void idle(long nextTimeout) throws IOException {
+		long start = REFITTime.nanoTime.getAsLong();
+		long now = start;
+		while (now - start < 2 * IDLE_SPIN_NS) {
+			if (selector.selectNow(this::collectTasks) > 0 || !remoteTaskQueue.isEmpty()) return;
+			if (incomingTasks != null && !incomingTasks.isEmpty()) return;
+			if (nextTimeout != -1L && nextTimeout <= REFITTime.currentTimeMillis.getAsLong()) return;
+			if (now - start < IDLE_SPIN_NS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+			now = REFITTime.nanoTime.getAsLong();
+		}
+
+		parked = true;
+		// Other threads check parked after queueing, thus either they wake us or we see their task
+		if (remoteTaskQueue.isEmpty()) {
+			long timeout = (nextTimeout == -1L) ? 0 : Math.max(1, nextTimeout - REFITTime.currentTimeMillis.getAsLong());
+			selector.select(this::collectTasks, timeout);
 		}
+		parked = false;
 	}
 }
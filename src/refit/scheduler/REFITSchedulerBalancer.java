@@ -0,0 +1,40 @@
+package refit.scheduler;
+
+// Moves migratable tasks away from saturated schedulers of a replica. Each scheduler measures the time
+// spent executing its tasks and, at the end of an interval, hands its hottest migratable task that fits
+// to the least utilized scheduler. Tasks only move if this narrows the utilization gap without
+// reversing it, and stay put for a while after a move to prevent them from bouncing back and forth.
+public class REFITSchedulerBalancer {
+
+	public static final long INTERVAL = 100 * 1000 * 1000L;
+	public static final long COOLDOWN = 10 * INTERVAL;
+	private static final double SATURATED = 0.8;
+
+	private final REFITScheduler[] schedulers;
+
+
+	public REFITSchedulerBalancer(REFITScheduler[] schedulers) {
+		this.schedulers = schedulers;
+	}
+
+	@Override
+	public String toString() {
+		return "BLNCR";
+	}
+
+	// Returns the scheduler to move load to or null if the scheduler should keep its tasks
+	public REFITScheduler target(REFITScheduler source, double utilization) {
+		if (utilization < SATURATED) return null;
+		REFITScheduler target = null;
+		for (REFITScheduler scheduler : schedulers) {
+			if (scheduler == source) continue;
+			if (target == null || scheduler.utilization() < target.utilization()) target = scheduler;
+		}
+		return target;
+	}
+
+	// Whether a task which accounts for the given share of the source's time should move to the target
+	public boolean fits(double taskShare, double sourceUtilization, double targetUtilization) {
+		return taskShare > 0 && targetUtilization + taskShare <= sourceUtilization - taskShare;
+	}
+}
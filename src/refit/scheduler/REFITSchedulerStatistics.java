@@ -58,12 +58,15 @@ public class REFITSchedulerStatistics {
 		taskDuration = -REFITTime.nanoTime.getAsLong();
 	}
 
-	public void taskEnd(int taskID) {
+	public void taskEnd(REFITSchedulerTask task) {
 		taskDuration += REFITTime.nanoTime.getAsLong();
+		// Only covers the tasks the scheduler started with
+		int taskID = task.taskID();
+		if (taskID >= tasks.length || tasks[taskID] != task) return;
 		executions[taskID]++;
 		executionDurations[taskID] += taskDuration;
 		executionDurationsMax[taskID] = Math.max(executionDurationsMax[taskID], taskDuration);
-		long throughput = tasks[taskID].collectThroughput();
+		long throughput = task.collectThroughput();
 		throughputs[taskID] += throughput;
 		totalThroughputs[taskID] += throughput;
 	}
@@ -3,6 +3,7 @@ package refit.scheduler;
 import java.io.IOException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import refit.util.REFITAssert;
 
@@ -12,13 +13,18 @@ public abstract class REFITSchedulerTask {
 	public final REFITSchedulerTaskType taskType;
 	private short taskID;
 
-	private REFITSchedulerFacade scheduler;
+	// Changes when the task migrates to another scheduler
+	private volatile REFITSchedulerFacade scheduler;
+	// Set while the task waits in the queue of remotely notified tasks of its scheduler
+	final AtomicBoolean remoteReady;
+	long lastMigration;
 
 
 	public REFITSchedulerTask(REFITSchedulerTaskType taskType, REFITSchedulerGroup group) {
 		REFITAssert.assertTrue(taskType != null, "Missing task type");
 		this.taskType = taskType;
 		this.taskID = -1;
+		this.remoteReady = new AtomicBoolean();
 		this.throughput = 0L;
 		group.registerTask(this);
 	}
@@ -35,6 +41,10 @@ public abstract class REFITSchedulerTask {
 		this.taskID = id;
 	}
 
+	void resetTaskID() {
+		this.taskID = -1;
+	}
+
 	public final short taskID() {
 		return this.taskID;
 	}
@@ -43,6 +53,10 @@ public abstract class REFITSchedulerTask {
 		this.scheduler = scheduler;
 	}
 
+	REFITSchedulerFacade scheduler() {
+		return scheduler;
+	}
+
 	public SelectionKey registerIO(SelectableChannel channel, int operations) throws IOException {
 		return scheduler.registerIOTask(this, channel, operations);
 	}
@@ -71,6 +85,21 @@ public abstract class REFITSchedulerTask {
 		// Override in sub classes if necessary
 	}
 
+	// Tasks which may move to another scheduler must not use timers
+	public boolean isMigratable() {
+		return false;
+	}
+
+	// Called on the thread of the old scheduler, must release the registrations with its selector
+	protected void beforeMigration() {
+		// Override in sub classes if necessary
+	}
+
+	// Called on the thread of the new scheduler before the task is executed there
+	protected void afterMigration() {
+		// Override in sub classes if necessary
+	}
+
 	public abstract void execute();
 
 
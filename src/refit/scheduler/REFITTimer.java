@@ -16,6 +16,11 @@ public class REFITTimer implements Comparable<REFITTimer> {
 
 	private boolean hasExpired = false;
 
+	// Position in the timing wheel of the scheduler
+	int wheelSlot = REFITTimerWheel.NONE;
+	REFITTimer wheelNext;
+	REFITTimer wheelPrev;
+
 	// the compare functions assume the timerID to be unique
 	protected REFITTimer(REFITSchedulerFacade scheduler, long timerID, TimerCallback callback) {
 		this.scheduler = scheduler;
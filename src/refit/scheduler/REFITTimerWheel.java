@@ -0,0 +1,162 @@
+package refit.scheduler;
+
+import refit.config.REFITConfig;
+
+// Active timers of a scheduler in a hierarchical hashed timing wheel. Level 0 has one slot per tick, each
+// higher level one slot per revolution of the level below. Timers are linked into their slot, thus
+// adding and removing them takes constant time and allocates nothing. Whenever a level completes a
+// revolution, the next slot of the level above is cascaded, that is, its timers are redistributed to the
+// lower levels. Timers beyond the range of the wheel wait in the last slot of the top level.
+public class REFITTimerWheel {
+
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	static final int NONE = -1;
+
+	private final long tickLength;
+	private final REFITTimer[] heads;
+	// Non-empty slots per level
+	private final long[] occupied;
+	// Slots of all ticks before the current one have been processed
+	private long currentTick;
+	private int size;
+
+
+	public REFITTimerWheel(long now) {
+		this.tickLength = Math.max(1, REFITConfig.TIMER_TICK);
+		this.heads = new REFITTimer[LEVELS * SLOTS];
+		this.occupied = new long[LEVELS];
+		this.currentTick = Math.floorDiv(now, tickLength);
+		this.size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean add(REFITTimer timer) {
+		if (timer.wheelSlot != NONE) return false;
+		insert(timer);
+		size++;
+		return true;
+	}
+
+	public boolean remove(REFITTimer timer) {
+		if (timer.wheelSlot == NONE) return false;
+		unlink(timer);
+		size--;
+		return true;
+	}
+
+	private void insert(REFITTimer timer) {
+		// Overdue timers go to the current slot
+		long tick = Math.max(currentTick, Math.floorDiv(timer.currentTimeout(), tickLength));
+		long delta = tick - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+		int shift = SLOT_BITS * level;
+		int index;
+		if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+			// Cascaded again once the wheel has turned far enough
+			index = (int) ((currentTick >> shift) + SLOT_MASK) & SLOT_MASK;
+		} else {
+			index = (int) (tick >> shift) & SLOT_MASK;
+		}
+
+		int slot = level * SLOTS + index;
+		timer.wheelSlot = slot;
+		timer.wheelPrev = null;
+		timer.wheelNext = heads[slot];
+		if (heads[slot] != null) heads[slot].wheelPrev = timer;
+		heads[slot] = timer;
+		occupied[level] |= 1L << index;
+	}
+
+	private void unlink(REFITTimer timer) {
+		int slot = timer.wheelSlot;
+		if (timer.wheelPrev == null) {
+			heads[slot] = timer.wheelNext;
+			if (heads[slot] == null) occupied[slot >> SLOT_BITS] &= ~(1L << (slot & SLOT_MASK));
+		} else {
+			timer.wheelPrev.wheelNext = timer.wheelNext;
+		}
+		if (timer.wheelNext != null) timer.wheelNext.wheelPrev = timer.wheelPrev;
+		timer.wheelSlot = NONE;
+		timer.wheelNext = null;
+		timer.wheelPrev = null;
+	}
+
+	// Fires all timers which have expired at the given time, in the order of their ticks
+	public void advance(long now) {
+		long nowTick = Math.floorDiv(now, tickLength);
+		if (size == 0) {
+			if (nowTick > currentTick) currentTick = nowTick;
+			return;
+		}
+		while (true) {
+			expire((int) currentTick & SLOT_MASK, now);
+			// Stay at the current tick, timers added for it later on must still fire
+			if (currentTick >= nowTick) return;
+			currentTick++;
+			cascade();
+		}
+	}
+
+	private void expire(int slot, long now) {
+		REFITTimer timer = heads[slot];
+		while (timer != null) {
+			if (timer.currentTimeout() > now) {
+				timer = timer.wheelNext;
+				continue;
+			}
+			remove(timer);
+			timer.timeout();
+			// The callback may have added or removed timers of this slot
+			timer = heads[slot];
+		}
+	}
+
+	private void cascade() {
+		// Higher levels first, they may refill the slot of the level below
+		for (int level = LEVELS - 1; level > 0; level--) {
+			int shift = SLOT_BITS * level;
+			if ((currentTick & ((1L << shift) - 1)) != 0) continue;
+			int slot = level * SLOTS + ((int) (currentTick >> shift) & SLOT_MASK);
+			REFITTimer timer = heads[slot];
+			heads[slot] = null;
+			occupied[level] &= ~(1L << (slot & SLOT_MASK));
+			while (timer != null) {
+				REFITTimer next = timer.wheelNext;
+				insert(timer);
+				timer = next;
+			}
+		}
+	}
+
+	// Time at which the next timer may expire or a slot has to be cascaded, -1 if there are no timers
+	public long nextTimeout() {
+		if (size == 0) return -1L;
+		long next = Long.MAX_VALUE;
+		int current = (int) currentTick & SLOT_MASK;
+		if ((occupied[0] & (1L << current)) != 0) {
+			// Exact for the current tick, otherwise the scheduler would spin until the end of the tick
+			for (REFITTimer timer = heads[current]; timer != null; timer = timer.wheelNext) {
+				next = Math.min(next, timer.currentTimeout());
+			}
+		} else if (occupied[0] != 0) {
+			int distance = Long.numberOfTrailingZeros(Long.rotateRight(occupied[0], current));
+			next = (currentTick + distance) * tickLength;
+		}
+		for (int level = 1; level < LEVELS; level++) {
+			if (occupied[level] == 0) continue;
+			int shift = SLOT_BITS * level;
+			long levelTick = currentTick >> shift;
+			// The slot of the current revolution has already been cascaded
+			int distance = Long.numberOfTrailingZeros(Long.rotateRight(occupied[level], (int) (levelTick + 1) & SLOT_MASK)) + 1;
+			next = Math.min(next, ((levelTick + distance) << shift) * tickLength);
+		}
+		return next;
+	}
+}
@@ -4,31 +4,50 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import refit.communication.REFITNetworkEvents.REFITConnectionResetNotification;
 import refit.communication.REFITNetworkEvents.REFITConnectionWriteableNotification;
 import refit.config.REFITConfig;
 import refit.message.REFITEvent;
+import refit.message.REFITMessage;
 import refit.scheduler.REFITSchedulerGroup;
 import refit.scheduler.REFITSchedulerTask;
 import refit.scheduler.REFITSchedulerTaskType;
 import refit.scheduler.REFITTimer;
+import refit.util.REFITMpscQueue;
 
 
 public abstract class REFITBoundedStage extends REFITSchedulerTask implements REFITEventReceiver<REFITEvent> {
 
+	// Slots of the inbox ring before messages spill into its overflow queue, client libraries are numerous
+	// and only see a few messages at a time
+	private static final int REPLICA_INBOX_CAPACITY = 1024;
+	private static final int CLIENT_INBOX_CAPACITY = 16;
+
 	protected final REFITBoundedReplicaContext replica;
-	protected final Queue<REFITEvent> incomingMessages;
+	protected final REFITMpscQueue<REFITEvent> incomingMessages;
+	// Agreement messages handled ahead of the incoming messages, null if priority lanes are disabled
+	protected final REFITMpscQueue<REFITEvent> priorityMessages;
 	protected final Set<REFITOutbox> activeOutboxes;
 	protected final List<REFITOutbox> registeredOutboxes;
 	protected final Map<Short, Set<REFITOutbox>> waitingOutboxes;
 	protected boolean isInterleaved;
+	protected boolean isBatched;
+	private boolean batchRequested;
+
+	// Messages the inbox may hold before the network workers feeding the stage stop reading, 0 if unlimited
+	private final int credits;
+	private final AtomicInteger queuedMessages;
+	private final Queue<Runnable> creditWaiters;
+	private int consumedMessages;
+	private final Consumer<REFITEvent> drainedMessageHandler = this::handleDrainedMessage;
 
 
 	public REFITBoundedStage(REFITSchedulerTaskType taskType, REFITBoundedReplicaContext replica) {
@@ -42,17 +61,30 @@ public abstract class REFITBoundedStage extends REFITSchedulerTask implements RE
 	private REFITBoundedStage(REFITSchedulerTaskType taskType, REFITBoundedReplicaContext replica, REFITSchedulerGroup group) {
 		super(taskType, group);
 		this.replica = replica;
-		this.incomingMessages = group.isSingleThreaded ? new LinkedList<>() : new ConcurrentLinkedQueue<>();
+		int capacity = (replica != null) ? REPLICA_INBOX_CAPACITY : CLIENT_INBOX_CAPACITY;
+		this.incomingMessages = new REFITMpscQueue<>(capacity);
+		this.priorityMessages = REFITConfig.PRIORITY_LANES ? new REFITMpscQueue<>(capacity) : null;
 		this.activeOutboxes = new LinkedHashSet<>();
 		this.registeredOutboxes = new ArrayList<>();
 		this.waitingOutboxes = new HashMap<>();
 		this.isInterleaved = false;
+		this.isBatched = false;
+		this.batchRequested = false;
+		this.credits = (replica != null) ? REFITConfig.STAGE_INBOX_CREDITS : 0;
+		this.queuedMessages = (credits > 0) ? new AtomicInteger() : null;
+		this.creditWaiters = (credits > 0) ? new ConcurrentLinkedQueue<>() : null;
+		this.consumedMessages = 0;
 	}
 
 	protected void markInterleaved() {
 		isInterleaved = true;
 	}
 
+	// Batched stages defer work triggered by individual messages until all queued messages are handled
+	protected void markBatched() {
+		isBatched = true;
+	}
+
 
 	// ##################
 	// # SCHEDULER TASK #
@@ -61,9 +93,14 @@ public abstract class REFITBoundedStage extends REFITSchedulerTask implements RE
 	@Override
 	public void execute() {
 		long startTime = (isInterleaved) ? System.nanoTime() : 0;
+		// Without priority lanes and time slicing the inbox is drained in one batch, otherwise the
+		// priority lane and the elapsed time have to be checked before each message
+		if (priorityMessages == null && !isInterleaved && !REFITConfig.TRACE_MESSAGES) {
+			consumedMessages += incomingMessages.drain(drainedMessageHandler);
+		}
 		// Process messages
 		REFITEvent message;
-		while ((message = incomingMessages.poll()) != null) {
+		while ((message = nextMessage()) != null) {
 			if (REFITConfig.TRACE_MESSAGES) {
 				try {
 					handleMessageInternal(message);
@@ -81,17 +118,40 @@ public abstract class REFITBoundedStage extends REFITSchedulerTask implements RE
 			if (isInterleaved) {
 				long currentTime = System.nanoTime();
 				// yield when execution took already more than 1ms
-				if (currentTime - startTime > 1000 * 1000 && !incomingMessages.isEmpty()) {
+				if (currentTime - startTime > 1000 * 1000 && (!incomingMessages.isEmpty() || (priorityMessages != null && !priorityMessages.isEmpty()))) {
 					progress();
 					break;
 				}
 			}
 		}
 
+		// Process work collected while handling the queued messages
+		while (batchRequested) {
+			batchRequested = false;
+			processBatch();
+		}
+
 		// Complete stage. Messages inserted into the queue by this method will be processed
 		// on the next scheduler sub-iteration
 		stageComplete();
 		processOutboxes();
+
+		if (queuedMessages != null) releaseCredits();
+	}
+
+	private void handleDrainedMessage(REFITEvent message) {
+		handleMessageInternal(message);
+		event();
+	}
+
+	private REFITEvent nextMessage() {
+		if (priorityMessages != null) {
+			REFITEvent message = priorityMessages.poll();
+			if (message != null) return message;
+		}
+		REFITEvent message = incomingMessages.poll();
+		if (message != null) consumedMessages++;
+		return message;
 	}
 
 	protected REFITTimer newTimer(REFITEvent signal) {
@@ -113,10 +173,41 @@ public abstract class REFITBoundedStage extends REFITSchedulerTask implements RE
 
 	@Override
 	public void tell(REFITEvent message) {
-		incomingMessages.add(message);
+		if (priorityMessages != null && message instanceof REFITMessage && ((REFITMessage) message).type.isPriority()) {
+			priorityMessages.add(message);
+		} else {
+			incomingMessages.add(message);
+			if (queuedMessages != null) queuedMessages.incrementAndGet();
+		}
 		progress();
 	}
 
+
+	// ###########
+	// # CREDITS #
+	// ###########
+
+	// Called by the network workers before handing over further messages
+	public boolean hasCredits() {
+		return queuedMessages == null || queuedMessages.get() < credits;
+	}
+
+	// Returns false if the stage has credits again, otherwise the callback runs once it has caught up
+	public boolean awaitCredits(Runnable callback) {
+		if (hasCredits()) return false;
+		creditWaiters.add(callback);
+		return !hasCredits();
+	}
+
+	private void releaseCredits() {
+		int queued = queuedMessages.addAndGet(-consumedMessages);
+		consumedMessages = 0;
+		// Resume at half the credits to not toggle the readers for every message
+		if (queued > credits / 2 || creditWaiters.isEmpty()) return;
+		Runnable callback;
+		while ((callback = creditWaiters.poll()) != null) callback.run();
+	}
+
 	private void handleMessageInternal(REFITEvent message) {
 		if (message.getClass() == REFITConnectionWriteableNotification.class) {
 			REFITConnectionWriteableNotification writeable = (REFITConnectionWriteableNotification) message;
@@ -143,6 +234,17 @@ public abstract class REFITBoundedStage extends REFITSchedulerTask implements RE
 		// Override in sub classes if necessary
 	}
 
+	// Returns whether the work was deferred to processBatch()
+	protected boolean requestBatchProcessing() {
+		if (!isBatched) return false;
+		batchRequested = true;
+		return true;
+	}
+
+	protected void processBatch() {
+		// Override in sub classes if necessary
+	}
+
 
 	// ###################
 	// # OUTBOX HANDLING #
@@ -2,6 +2,7 @@ package refit.stage;
 
 import refit.crypto.REFITMessageAuthentication;
 import refit.message.REFITMessage;
+import refit.message.REFITMessageTemplate;
 import refit.message.REFITReplyBase;
 import refit.scheduler.REFITSchedulerGroup;
 
@@ -13,6 +14,9 @@ public abstract class REFITReplicaContext extends REFITBoundedReplicaContext {
 
 	public abstract void sendMessageToClient(REFITReplyBase reply, short clientID);
 
+	// Sends an instance of the template with the uid (clientID, seqNr) without allocating a message
+	public abstract void sendMessageToClient(REFITMessageTemplate template, long seqNr, short clientID);
+
 	public abstract void replicaMulticast(REFITMessage message, boolean[] replicas);
 
 	public abstract void replicaUnicast(REFITMessage message, short replicaID);
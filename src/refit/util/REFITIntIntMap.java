@@ -0,0 +1,114 @@
+package refit.util;
+
+import java.util.Arrays;
+
+
+// Hash map from primitive int keys to primitive int values using open addressing. Absent keys
+// map to the configured missing value, which therefore cannot be stored.
+public class REFITIntIntMap {
+
+	private final int missingValue;
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+
+	public REFITIntIntMap(int missingValue) {
+		this(missingValue, 8);
+	}
+
+	public REFITIntIntMap(int missingValue, int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+		this.missingValue = missingValue;
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(values, missingValue);
+		this.size = 0;
+	}
+
+	private int find(int key) {
+		int mask = keys.length - 1;
+		for (int i = REFITIntMap.slot(key, mask); values[i] != missingValue; i = (i + 1) & mask) {
+			if (keys[i] == key) return i;
+		}
+		return -1;
+	}
+
+	public int get(int key) {
+		int i = find(key);
+		return (i >= 0) ? values[i] : missingValue;
+	}
+
+	public void put(int key, int value) {
+		if (value == missingValue) {
+			remove(key);
+			return;
+		}
+		int mask = keys.length - 1;
+		int i = REFITIntMap.slot(key, mask);
+		for (; values[i] != missingValue; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) resize(keys.length * 2);
+	}
+
+	public void remove(int key) {
+		int i = find(key);
+		if (i < 0) return;
+		size--;
+
+		// Shift following entries of the probe sequence backwards to close the gap
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (i + 1) & mask; values[j] != missingValue; j = (j + 1) & mask) {
+			int home = REFITIntMap.slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = missingValue;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, missingValue);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] == missingValue) continue;
+			int i = REFITIntMap.slot(oldKeys[j], mask);
+			while (values[i] != missingValue) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(values, missingValue);
+		size = 0;
+	}
+
+	// Returns a snapshot of the keys in ascending order
+	public int[] keys() {
+		int[] result = new int[size];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != missingValue) result[count++] = keys[i];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+}
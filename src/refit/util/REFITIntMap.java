@@ -0,0 +1,156 @@
+package refit.util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+
+// Hash map with primitive int keys using open addressing, which avoids boxed keys and per-entry
+// objects. Null values are not supported.
+public class REFITIntMap<V> {
+
+	public interface Visitor<V> {
+		void visit(int key, V value);
+	}
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+
+	public REFITIntMap() {
+		this(8);
+	}
+
+	public REFITIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.size = 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		forEach((key, value) -> builder.append(builder.length() > 1 ? ", " : "").append(key).append('=').append(value));
+		return builder.append('}').toString();
+	}
+
+	static int slot(int key, int mask) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private int find(int key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) return i;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int i = find(key);
+		return (i >= 0) ? (V) values[i] : null;
+	}
+
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) throw new NullPointerException("Null values are not supported");
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) resize(keys.length * 2);
+		return null;
+	}
+
+	public V computeIfAbsent(int key, IntFunction<V> factory) {
+		V value = get(key);
+		if (value == null) {
+			value = factory.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int i = find(key);
+		if (i < 0) return null;
+		V old = (V) values[i];
+		size--;
+
+		// Shift following entries of the probe sequence backwards to close the gap
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = null;
+		return old;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] == null) continue;
+			int i = slot(oldKeys[j], mask);
+			while (values[i] != null) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	// The map must not be modified while visiting its entries
+	@SuppressWarnings("unchecked")
+	public void forEach(Visitor<V> visitor) {
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) visitor.visit(keys[i], (V) values[i]);
+		}
+	}
+
+	// Returns a snapshot of the keys in ascending order
+	public int[] keys() {
+		int[] result = new int[size];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) result[count++] = keys[i];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -0,0 +1,141 @@
+package refit.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+
+// Multi-producer single-consumer queue on a bounded array ring (after D. Vyukov's bounded queue). Each
+// slot carries a sequence number which tells producers whether the slot is free and the consumer whether
+// it has been filled, thus adding and removing elements allocates nothing. Inboxes must not drop
+// elements, so a full ring spills into an unbounded overflow queue. Elements of one producer are never
+// reordered: while the overflow holds elements all producers append there, and the consumer only
+// continues with the overflow once the ring is empty. The positions of producers and consumer are kept
+// on separate cache lines. Only the thread owning the queue may remove elements and size() is an
+// estimate. The queue therefore does not implement the Queue interface, which would require iteration
+// and removal of arbitrary elements.
+public class REFITMpscQueue<E> {
+
+	// Longs per cache line
+	private static final int PAD = 8;
+	private static final int TAIL = PAD;
+	private static final int HEAD = 2 * PAD;
+
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLongArray positions;
+
+	private final ConcurrentLinkedQueue<E> overflow;
+	private final AtomicInteger overflowSize;
+
+
+	public REFITMpscQueue(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.elements = new Object[slots];
+		this.sequences = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++) sequences.set(i, i);
+		this.mask = slots - 1;
+		this.positions = new AtomicLongArray(3 * PAD);
+		this.overflow = new ConcurrentLinkedQueue<>();
+		this.overflowSize = new AtomicInteger();
+	}
+
+	public void add(E element) {
+		offer(element);
+	}
+
+	public boolean offer(E element) {
+		if (element == null) throw new NullPointerException();
+		if (overflowSize.get() == 0 && offerToRing(element)) return true;
+		overflowSize.incrementAndGet();
+		overflow.add(element);
+		return true;
+	}
+
+	private boolean offerToRing(E element) {
+		long position = positions.get(TAIL);
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (positions.compareAndSet(TAIL, position, position + 1)) {
+					elements[index] = element;
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+				position = positions.get(TAIL);
+			} else if (difference < 0) {
+				// Slot has not been consumed yet, the ring is full
+				return false;
+			} else {
+				// Another producer took the slot
+				position = positions.get(TAIL);
+			}
+		}
+	}
+
+	public E poll() {
+		long head = positions.getPlain(HEAD);
+		E element = pollFromRing(head);
+		if (element != null) {
+			positions.setPlain(HEAD, head + 1);
+			return element;
+		}
+		return pollFromOverflow(head);
+	}
+
+	@SuppressWarnings("unchecked")
+	private E pollFromRing(long head) {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) return null;
+		E element = (E) elements[index];
+		elements[index] = null;
+		// Free the slot for the next round
+		sequences.lazySet(index, head + mask + 1);
+		return element;
+	}
+
+	private E pollFromOverflow(long head) {
+		// Elements which are still being added to the ring are older than those in the overflow
+		if (overflowSize.get() == 0 || positions.get(TAIL) != head) return null;
+		E element = overflow.poll();
+		if (element != null) overflowSize.decrementAndGet();
+		return element;
+	}
+
+	// Hands all available elements to the consumer, which must not poll from this queue itself
+	public int drain(Consumer<? super E> consumer) {
+		long head = positions.getPlain(HEAD);
+		int count = 0;
+		E element;
+		while ((element = pollFromRing(head)) != null) {
+			head++;
+			consumer.accept(element);
+			count++;
+		}
+		positions.setPlain(HEAD, head);
+		while ((element = pollFromOverflow(head)) != null) {
+			consumer.accept(element);
+			count++;
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		long head = positions.getPlain(HEAD);
+		int index = (int) head & mask;
+		if (sequences.get(index) == head + 1) return (E) elements[index];
+		return (overflowSize.get() == 0 || positions.get(TAIL) != head) ? null : overflow.peek();
+	}
+
+	public boolean isEmpty() {
+		return positions.get(TAIL) == positions.getPlain(HEAD) && overflowSize.get() == 0;
+	}
+
+	public int size() {
+		return (int) Math.min(Integer.MAX_VALUE, positions.get(TAIL) - positions.getPlain(HEAD) + overflowSize.get());
+	}
+}
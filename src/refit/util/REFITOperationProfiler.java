@@ -0,0 +1,64 @@
+package refit.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.HdrHistogram.Histogram;
+
+// Collects service time histograms per operation type and periodically logs their summary
+public class REFITOperationProfiler {
+
+	private static final String UNTYPED = "ALL";
+	private static final long HIGHEST_TRACKABLE_MICROS = 60L * 1000 * 1000;
+
+	private final String name;
+	private final long intervalInMs;
+	private final Map<String, Histogram> histograms;
+	private long intervalStart;
+
+
+	// An interval of 0 disables periodic logging
+	public REFITOperationProfiler(String name, long intervalInMs) {
+		this.name = name;
+		this.intervalInMs = intervalInMs;
+		this.histograms = new TreeMap<>();
+		this.intervalStart = REFITTime.currentTimeMillis.getAsLong();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	public void record(Object type, long durationInNs) {
+		String key = (type != null) ? type.toString() : UNTYPED;
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = new Histogram(HIGHEST_TRACKABLE_MICROS, 2);
+			histograms.put(key, histogram);
+		}
+		histogram.recordValue(Math.min(durationInNs / 1000, HIGHEST_TRACKABLE_MICROS));
+
+		if (intervalInMs > 0 && REFITTime.currentTimeMillis.getAsLong() >= intervalStart + intervalInMs) {
+			REFITLogger.logDebug(this, "\n" + summary());
+			reset();
+		}
+	}
+
+	public void reset() {
+		for (Histogram histogram : histograms.values()) histogram.reset();
+		intervalStart = REFITTime.currentTimeMillis.getAsLong();
+	}
+
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("[PROF]  %-10s | %8s | %9s | %7s %7s %7s %7s | %9s\n", "type", "count", "mean(us)", "p50", "p90", "p99", "p99.9", "max"));
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram h = entry.getValue();
+			if (h.getTotalCount() == 0) continue;
+			sb.append(String.format("[PROF]  %-10s | %8d | %9.1f | %7d %7d %7d %7d | %9d\n", entry.getKey(), h.getTotalCount(), h.getMean(),
+					h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99), h.getValueAtPercentile(99.9), h.getMaxValue()));
+		}
+		return sb.toString();
+	}
+}